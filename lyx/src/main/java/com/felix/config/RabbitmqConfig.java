@@ -1,11 +1,18 @@
 package com.felix.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import static com.felix.model.constants.RabbitmqConstants.*;
 
@@ -83,4 +90,86 @@ public class RabbitmqConfig {
         return BindingBuilder.bind(deadQueue).to(deadExchange).with("dkey");
     }
 
+    /**
+     * 声明死信重试拓扑
+     * 死信队列中处理失败的订单按重试次数进入不同延迟的重试队列，重试队列中的消息过期后经死信交换机回到交换机A重新消费；
+     * 超过最大重试次数的订单进入停车场队列，等待人工排查后批量重放
+     * @param delays 各级重试队列的延迟（毫秒）
+     * @return
+     */
+    @Bean
+    public Declarables orderRetryDeclarables(@Value("${lyx.order.retry.delays:1000,10000,60000}") long[] delays){
+        List<Declarable> declarables = new ArrayList<>();
+        DirectExchange retryExchange = new DirectExchange(RETRY_EXCHANGE);
+        declarables.add(retryExchange);
+        for (int i = 0; i < delays.length; i++){
+            Queue queue = QueueBuilder.durable(RETRY_QUEUE_PREFIX + i)
+                    .withArgument("x-message-ttl", delays[i])
+                    //过期后回到交换机A
+                    .withArgument("x-dead-letter-exchange", EXCHANGE)
+                    .withArgument("x-dead-letter-routing-key", "msg")
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(retryExchange).with(RETRY_QUEUE_PREFIX + i));
+        }
+        Queue parkingQueue = QueueBuilder.durable(PARKING_QUEUE).build();
+        declarables.add(parkingQueue);
+        declarables.add(BindingBuilder.bind(parkingQueue).to(retryExchange).with(PARKING_QUEUE));
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 声明订单分片拓扑（开启 lyx.order.shard.enabled 后生效）
+     * 一致性哈希交换机按路由键（秒杀券id）的哈希把消息分到 shards 个分片队列，同一秒杀券的订单始终进入同一个队列；
+     * 分片队列与队列A一样设置过期时间和死信交换机
+     * @param shards 分片队列数
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(name = "lyx.order.shard.enabled", havingValue = "true")
+    public Declarables orderShardDeclarables(@Value("${lyx.order.shard.count:4}") int shards){
+        List<Declarable> declarables = new ArrayList<>();
+        //需要Broker启用 rabbitmq_consistent_hash_exchange 插件
+        declarables.add(new CustomExchange(SHARD_EXCHANGE, "x-consistent-hash", true, false));
+        for (int i = 0; i < shards; i++){
+            Queue queue = QueueBuilder.durable(SHARD_QUEUE_PREFIX + i)
+                    .withArgument("x-dead-letter-exchange", DEAD_EXCHANGE)
+                    .withArgument("x-dead-letter-routing-key", "dkey")
+                    .withArgument("x-message-ttl", 10000)
+                    .build();
+            declarables.add(queue);
+            //一致性哈希交换机的绑定键是权重，各分片权重相同
+            declarables.add(new Binding(queue.getName(), Binding.DestinationType.QUEUE, SHARD_EXCHANGE, "1", null));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 批量消费订单的监听容器工厂
+     * 每次最多攒够 batchSize 条消息，或等待 receiveTimeout 毫秒仍无新消息时，将已收到的消息一次性交给监听方法，
+     * 监听方法正常返回（事务已提交）后才会对整批消息进行确认
+     * @param configurer Spring Boot 按 application.yaml 配置好的容器工厂配置器
+     * @param connectionFactory rabbitmq连接工厂
+     * @param batchSize 每批最多消费的消息数
+     * @param receiveTimeout 攒批的最长等待时间（毫秒）
+     * @return
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${lyx.order.batch.size:200}") int batchSize,
+            @Value("${lyx.order.batch.receive-timeout:50}") long receiveTimeout){
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        //开启批量监听，由消费者端攒批
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout);
+        //预取数量至少要能装下一整批消息
+        factory.setPrefetchCount(batchSize);
+        return factory;
+    }
+
 }
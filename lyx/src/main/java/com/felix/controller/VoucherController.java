@@ -1,6 +1,7 @@
 package com.felix.controller;
 
 
+import com.felix.job.SeckillStateRebuildJob;
 import com.felix.model.dto.Result;
 import com.felix.model.entity.Voucher;
 import com.felix.service.IVoucherService;
@@ -20,6 +21,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillStateRebuildJob seckillStateRebuildJob;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -42,6 +46,44 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 秒杀券补库存
+     * @param voucherId 秒杀券id
+     * @param count 补充的库存数量
+     * @return 秒杀券id
+     */
+    @PostMapping("seckill/restock/{id}")
+    public Result restockSeckillVoucher(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        if (count == null || count <= 0){
+            return Result.fail("补充的库存数量必须大于0");
+        }
+        voucherService.restockSeckillVoucher(voucherId, count);
+        return Result.ok(voucherId);
+    }
+
+    /**
+     * 根据数据库重建所有未结束秒杀券在Redis中的库存和一人一单记录
+     * @param force true：覆盖Redis中已有的状态（秒杀进行中的秒杀券除外）；false：只重建库存已丢失的秒杀券
+     * @return 重建的秒杀券数量
+     */
+    @PostMapping("seckill/rebuild")
+    public Result rebuildSeckillState(@RequestParam(value = "force", defaultValue = "false") Boolean force) {
+        return Result.ok(seckillStateRebuildJob.rebuildAll(force));
+    }
+
+    /**
+     * 根据数据库重建单个秒杀券在Redis中的库存和一人一单记录（秒杀进行中时只在库存已丢失时重建）
+     * @param voucherId 秒杀券id
+     * @return 秒杀券id
+     */
+    @PostMapping("seckill/rebuild/{id}")
+    public Result rebuildSeckillState(@PathVariable("id") Long voucherId) {
+        if (!seckillStateRebuildJob.rebuild(voucherId)){
+            return Result.fail("秒杀进行中，不能覆盖Redis中的秒杀状态");
+        }
+        return Result.ok(voucherId);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -1,14 +1,21 @@
 package com.felix.controller;
 
 
+import com.felix.job.SeckillStockReconciler;
+import com.felix.listener.OrderDeadLetterProcessor;
+import com.felix.listener.VoucherOrderStreamConsumer;
 import com.felix.model.dto.Result;
 import com.felix.service.IVoucherOrderService;
+import com.felix.utils.SeckillAdmissionControl;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -22,8 +29,70 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService iVoucherOrderService;
 
+    @Resource
+    private VoucherOrderStreamConsumer voucherOrderStreamConsumer;
+
+    @Resource
+    private SeckillAdmissionControl admissionControl;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
+    @Resource
+    private OrderDeadLetterProcessor deadLetterProcessor;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
+        //准入控制：超出 剩余库存 * 倍数 的请求直接返回，不进入秒杀逻辑
+        Result rejected = admissionControl.admit(voucherId);
+        if (rejected != null){
+            return rejected;
+        }
         return iVoucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 秒杀券抢购（非阻塞版本）：返回CompletableFuture后立即释放servlet线程，结果就绪后再异步写回响应
+     */
+    @PostMapping("seckill/async/{id}")
+    public CompletableFuture<Result> seckillVoucherAsync(@PathVariable("id") Long voucherId) {
+        Result rejected = admissionControl.admit(voucherId);
+        if (rejected != null){
+            return CompletableFuture.completedFuture(rejected);
+        }
+        return iVoucherOrderService.seckillVoucherAsync(voucherId);
+    }
+
+    /**
+     * 查询Redis Stream订单消费者的监控数据（各消费者的pending数量、处理数量和延迟）
+     */
+    @GetMapping("stream/metrics")
+    public Result streamMetrics() {
+        return Result.ok(voucherOrderStreamConsumer.metrics());
+    }
+
+    /**
+     * 查询Redis与数据库库存对账的监控数据（各秒杀券的库存偏差、订单偏差和补发数量）
+     */
+    @GetMapping("reconcile/metrics")
+    public Result reconcileMetrics() {
+        return Result.ok(seckillStockReconciler.metrics());
+    }
+
+    /**
+     * 查询死信订单的重试、停车场数量
+     */
+    @GetMapping("dead-letter/metrics")
+    public Result deadLetterMetrics() {
+        return Result.ok(deadLetterProcessor.metrics());
+    }
+
+    /**
+     * 批量重放停车场队列中的订单
+     * @param max 最多重放的数量
+     */
+    @PostMapping("dead-letter/replay")
+    public Result replayParked(@RequestParam(value = "max", defaultValue = "1000") Integer max) {
+        return Result.ok(deadLetterProcessor.replay(max));
+    }
 }
@@ -6,14 +6,19 @@ import com.felix.model.constants.RedisConstants;
 import com.felix.model.dto.UserDTO;
 import com.felix.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class ReflectUserInterceptor implements HandlerInterceptor {
+/**
+ * 根据请求头中的token把用户信息保存到ThreadLocal
+ * 异步请求（返回CompletableFuture）第一次分发结束时不会调用 afterCompletion，
+ * 需在 afterConcurrentHandlingStarted 中清除，否则用户信息残留在Tomcat线程上，被下一个没有token的请求复用
+ */
+public class ReflectUserInterceptor implements AsyncHandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
@@ -26,6 +31,8 @@ public class ReflectUserInterceptor implements HandlerInterceptor {
      */
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //0、清除线程上可能残留的用户信息
+        UserHolder.removeUser();
 
         //1、从request的请求头中获取token
         String token = request.getHeader("authorization");
@@ -57,4 +64,12 @@ public class ReflectUserInterceptor implements HandlerInterceptor {
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
     }
+
+    /**
+     * 异步请求的第一次分发结束（servlet线程被释放，afterCompletion 要等异步结果写回时才会调用）
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
 }
@@ -0,0 +1,230 @@
+package com.felix.job;
+
+import com.felix.mapper.VoucherOrderMapper;
+import com.felix.model.entity.SeckillVoucher;
+import com.felix.service.ISeckillVoucherService;
+import com.felix.utils.SeckillAdmissionControl;
+import com.felix.utils.SeckillMetaStore;
+import com.felix.utils.SeckillSoldOutRegistry;
+import com.felix.utils.SeckillStockSharding;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_KEY;
+import static com.felix.model.constants.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 根据MySQL重建Redis中的秒杀状态（Redis数据丢失或主从切换后使用）
+ *
+ * 对每个未结束的秒杀券：
+ *  1、用MyBatis游标流式读取tb_voucher_order中的下单用户，按批通过pipeline写回一人一单的去重结构（集合或位图）
+ *  2、写回秒杀时间和去重方式
+ *  3、最后用数据库中的剩余库存写回库存key（库存key写入前lua脚本无法执行，重建期间不会产生新订单）
+ * 分片数和去重方式以创建时保存在tb_seckill_voucher中的为准，Redis被清空后也能按原方式重建。
+ * 数据库库存不包含尚在消息队列中未入库的订单，覆盖秒杀进行中的Redis状态会超卖，
+ * 因此秒杀时间内只重建库存key已丢失的秒杀券，不允许强制覆盖
+ */
+@Slf4j
+@Component
+public class SeckillStateRebuildJob implements ApplicationRunner {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    @Resource
+    private SeckillMetaStore seckillMetaStore;
+
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillAdmissionControl admissionControl;
+
+    //通过代理对象调用，使流式查询运行在事务中
+    @Lazy
+    @Resource
+    private SeckillStateRebuildJob self;
+
+    //启动时是否重建Redis中缺失的秒杀状态
+    @Value("${lyx.seckill.rebuild.on-startup:false}")
+    private boolean onStartup;
+
+    //每次pipeline写入的用户数
+    @Value("${lyx.seckill.rebuild.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 启动时只重建库存key已丢失的秒杀券
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (onStartup){
+            rebuildAll(false);
+        }
+    }
+
+    /**
+     * 重建所有未结束的秒杀券
+     * 秒杀券表数据量小，直接查询列表；MySQL同一连接同时只能有一个流式结果集，订单逐个秒杀券流式读取
+     * @param force true：覆盖Redis中已有的状态；false：只重建库存key已丢失的秒杀券
+     * @return 重建的秒杀券数量
+     */
+    public int rebuildAll(boolean force){
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        int rebuilt = 0;
+        for (SeckillVoucher voucher : vouchers){
+            boolean overwrite = force && !isOnSale(voucher);
+            if (force && !overwrite){
+                log.warn("秒杀券{}正在秒杀中，只在库存key丢失时重建", voucher.getVoucherId());
+            }
+            try {
+                if (self.rebuild(voucher, overwrite)){
+                    rebuilt++;
+                }
+            } catch (Exception e) {
+                log.error("重建秒杀券{}的Redis状态失败", voucher.getVoucherId(), e);
+            }
+        }
+        log.info("已重建{}个秒杀券的Redis状态", rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * 重建单个秒杀券（秒杀时间内只在库存key丢失时重建）
+     * @param voucherId 秒杀券id
+     * @return 是否重建
+     */
+    public boolean rebuild(Long voucherId){
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null){
+            throw new RuntimeException("秒杀券不存在！");
+        }
+        return self.rebuild(voucher, !isOnSale(voucher));
+    }
+
+    /**
+     * 是否在秒杀时间内
+     */
+    private static boolean isOnSale(SeckillVoucher voucher){
+        LocalDateTime now = LocalDateTime.now();
+        return !now.isBefore(voucher.getBeginTime()) && now.isBefore(voucher.getEndTime());
+    }
+
+    /**
+     * 重建单个秒杀券（在只读事务中遍历订单游标）
+     * @param voucher 秒杀券
+     * @param force 是否覆盖Redis中已有的状态
+     * @return 是否重建
+     */
+    @Transactional(readOnly = true)
+    public boolean rebuild(SeckillVoucher voucher, boolean force){
+        Long voucherId = voucher.getVoucherId();
+        //分片数以数据库为准（Redis中的分片数可能已丢失）
+        int shards = voucher.getStockShards() != null ? Math.max(voucher.getStockShards(), 1) : stockSharding.shardsOf(voucherId);
+        String stockKey = shards > 1 ? SeckillStockSharding.stockKey(voucherId, 0) : SECKILL_STOCK_KEY + voucherId;
+        if (!force && Boolean.TRUE.equals(stringRedisTemplate.hasKey(stockKey))){
+            return false;
+        }
+        //去重方式以数据库为准，数据库中没有时（旧数据）依次取Redis中的和默认配置
+        String dedup = voucher.getDedup() != null ? voucher.getDedup() : seckillMetaStore.dedupOf(voucherId);
+        dedup = seckillMetaStore.resolveDedup(dedup, shards);
+        boolean bitmap = SeckillMetaStore.DEDUP_BITMAP.equals(dedup);
+
+        //1、流式读取下单用户，分批写回去重结构
+        long users = 0;
+        List<Long> batch = new ArrayList<>(batchSize);
+        try (Cursor<Long> cursor = voucherOrderMapper.scanUserIds(voucherId)){
+            for (Long userId : cursor){
+                batch.add(userId);
+                if (batch.size() >= batchSize){
+                    writeUsers(voucherId, batch, shards, bitmap);
+                    users += batch.size();
+                    batch.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("关闭订单游标失败", e);
+        }
+        if (!batch.isEmpty()){
+            writeUsers(voucherId, batch, shards, bitmap);
+            users += batch.size();
+        }
+
+        //2、写回秒杀时间和去重方式
+        seckillMetaStore.save(voucherId, voucher.getBeginTime(), voucher.getEndTime(), dedup);
+
+        //3、写回库存
+        Integer stock = seckillVoucherService.stockOf(voucherId);
+        int remaining = Math.max(stock == null ? 0 : stock, 0);
+        if (shards > 1){
+            stockSharding.initShards(voucherId, remaining, shards);
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(remaining));
+            stockSharding.saveShards(voucherId, shards);
+        }
+        soldOutRegistry.reset(voucherId);
+        admissionControl.reset(voucherId);
+        log.info("秒杀券{}已重建：库存{}，下单用户{}", voucherId, remaining, users);
+        return true;
+    }
+
+    /**
+     * 通过pipeline写入一批下单用户
+     */
+    private void writeUsers(Long voucherId, List<Long> userIds, int shards, boolean bitmap){
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (bitmap){
+                //位图去重：SETBIT seckill:order:bitmap:{voucherId}:{块} 偏移 1
+                for (Long userId : userIds){
+                    connection.stringCommands().setBit(bytes(SeckillMetaStore.bitmapKey(voucherId, userId)),
+                            SeckillMetaStore.bitmapOffset(userId), true);
+                }
+                return null;
+            }
+            //集合去重：按订单key分组，每组一条 SADD
+            Map<String, List<byte[]>> members = new HashMap<>();
+            for (Long userId : userIds){
+                String orderKey = shards > 1
+                        ? SeckillStockSharding.orderKey(voucherId, (int) Math.floorMod(userId, (long) shards))
+                        : SECKILL_ORDER_KEY + voucherId;
+                members.computeIfAbsent(orderKey, key -> new ArrayList<>()).add(bytes(userId.toString()));
+            }
+            for (Map.Entry<String, List<byte[]>> entry : members.entrySet()){
+                connection.setCommands().sAdd(bytes(entry.getKey()), entry.getValue().toArray(new byte[0][]));
+            }
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,298 @@
+package com.felix.job;
+
+import cn.hutool.core.util.StrUtil;
+import com.felix.mapper.VoucherOrderMapper;
+import com.felix.model.entity.SeckillVoucher;
+import com.felix.model.entity.VoucherOrder;
+import com.felix.service.ISeckillVoucherService;
+import com.felix.utils.IdGenerator;
+import com.felix.utils.OrderPublishLedger;
+import com.felix.utils.OrderPublisher;
+import com.felix.utils.SeckillMetaStore;
+import com.felix.utils.SeckillStockSharding;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_KEY;
+import static com.felix.model.constants.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * Redis与数据库的秒杀库存对账
+ *
+ * 定期对每个未结束的秒杀券比较：
+ *  1、Redis中的下单用户数（SCARD seckill:order:{id}）与 数据库订单数 + 台账中未入库的订单数
+ *  2、Redis剩余库存 与 数据库剩余库存 - 台账中未入库的订单数
+ * 数据库订单数增量统计：订单id高位是时间戳，每轮只统计 (上轮上界, 当前时间 - lag] 区间内新增的订单并累加，
+ * lag之内的订单每轮单独统计；每隔若干轮全量重算一次，修正提交晚于lag的订单。
+ * 台账中登记超过redrive-after仍未入库的订单视为消息丢失，重新发送到RabbitMQ
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    @Resource
+    private SeckillMetaStore seckillMetaStore;
+
+    @Resource
+    private OrderPublishLedger orderLedger;
+
+    @Resource
+    private OrderPublisher orderPublisher;
+
+    @Resource
+    private IdGenerator idGenerator;
+
+    //是否启用对账
+    @Value("${lyx.order.reconcile.enabled:false}")
+    private boolean enabled;
+
+    //对账间隔（毫秒）
+    @Value("${lyx.order.reconcile.interval:5000}")
+    private long intervalMillis;
+
+    //订单入库的最大延迟（毫秒），早于 当前时间 - lag 的订单视为已稳定，累加到增量计数中
+    @Value("${lyx.order.reconcile.lag:10000}")
+    private long lagMillis;
+
+    //每隔多少轮全量重算一次数据库订单数（1表示每轮都全量重算）
+    @Value("${lyx.order.reconcile.full-every:60}")
+    private int fullEvery;
+
+    //台账记录超过多久未入库则补发（毫秒）
+    @Value("${lyx.order.reconcile.redrive-after:30000}")
+    private long redriveAfterMillis;
+
+    //每轮每个秒杀券最多补发的订单数
+    @Value("${lyx.order.reconcile.redrive-batch:500}")
+    private int redriveBatch;
+
+    //已稳定部分的订单id上界
+    private long settledUpperId;
+    //秒杀券id -> 已稳定部分的订单数
+    private final Map<Long, Long> settledCounts = new HashMap<>();
+    //对账轮数
+    private long rounds;
+
+    //秒杀券id -> 最近一轮的对账结果
+    private final Map<Long, Map<String, Object>> voucherMetrics = new ConcurrentHashMap<>();
+    private final AtomicLong redriven = new AtomicLong();
+    private volatile long lastRunTime;
+
+    //对账线程
+    private final ScheduledExecutorService reconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init(){
+        //至少为1（每轮都全量重算），配置为0或负数时取模会抛出异常
+        fullEvery = Math.max(1, fullEvery);
+        if (enabled){
+            reconcileExecutor.scheduleWithFixedDelay(this::reconcileSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy(){
+        reconcileExecutor.shutdownNow();
+    }
+
+    private void reconcileSafely(){
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账异常", e);
+        }
+    }
+
+    /**
+     * 执行一轮对账
+     */
+    public synchronized void reconcile(){
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+
+        //1、统计数据库订单数
+        long upperId = idGenerator.minIdAt(LocalDateTime.now().minus(lagMillis, ChronoUnit.MILLIS));
+        if (rounds++ % fullEvery == 0){
+            //全量重算已稳定部分
+            settledCounts.clear();
+            addCounts(settledCounts, voucherOrderMapper.countByVoucher(null, upperId));
+        } else if (upperId > settledUpperId){
+            //增量累加 (上轮上界, 本轮上界] 区间内的订单
+            addCounts(settledCounts, voucherOrderMapper.countByVoucher(settledUpperId, upperId));
+        }
+        settledUpperId = Math.max(settledUpperId, upperId);
+        Map<Long, Long> recentCounts = new HashMap<>();
+        addCounts(recentCounts, voucherOrderMapper.countByVoucher(settledUpperId, null));
+
+        //2、逐个秒杀券比较
+        Set<Long> active = new HashSet<>();
+        for (SeckillVoucher voucher : vouchers){
+            Long voucherId = voucher.getVoucherId();
+            active.add(voucherId);
+            long dbOrders = settledCounts.getOrDefault(voucherId, 0L) + recentCounts.getOrDefault(voucherId, 0L);
+            voucherMetrics.put(voucherId, compare(voucherId, dbOrders));
+            //3、补发台账中长时间未入库的订单
+            if (orderLedger.isEnabled()){
+                redrive(voucherId);
+            }
+        }
+        voucherMetrics.keySet().retainAll(active);
+        lastRunTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 比较单个秒杀券的Redis与数据库状态
+     */
+    private Map<String, Object> compare(Long voucherId, long dbOrders){
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        int shards = stockSharding.shardsOf(voucherId);
+        long redisStock = shards > 1 ? stockSharding.remainingStock(voucherId) : parseLong(
+                stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId));
+        Integer stock = seckillVoucherService.stockOf(voucherId);
+        long dbStock = stock == null ? 0 : stock;
+        long pending = orderLedger.isEnabled() ? orderLedger.pending(voucherId) : 0;
+
+        metrics.put("redisStock", redisStock);
+        metrics.put("dbStock", dbStock);
+        metrics.put("dbOrders", dbOrders);
+        metrics.put("ledgerPending", pending);
+        //库存偏差：大于0说明Redis预扣了数据库中不存在且台账中也没有的订单（订单丢失）
+        long stockDrift = dbStock - pending - redisStock;
+        metrics.put("stockDrift", stockDrift);
+
+        //下单用户数偏差（位图去重的秒杀券无法直接计数，不比较）
+        if (!SeckillMetaStore.DEDUP_BITMAP.equals(seckillMetaStore.dedupOf(voucherId))){
+            long redisOrders = 0;
+            if (shards > 1){
+                for (int i = 0; i < shards; i++){
+                    redisOrders += size(stringRedisTemplate.opsForSet().size(SeckillStockSharding.orderKey(voucherId, i)));
+                }
+            } else {
+                redisOrders = size(stringRedisTemplate.opsForSet().size(SECKILL_ORDER_KEY + voucherId));
+            }
+            metrics.put("redisOrders", redisOrders);
+            metrics.put("orderDrift", redisOrders - dbOrders - pending);
+        }
+
+        //连续两轮出现相同的偏差才告警（单轮偏差可能是读取时刻不同造成的）
+        Map<String, Object> previous = voucherMetrics.get(voucherId);
+        if (stockDrift != 0 && previous != null && Long.valueOf(stockDrift).equals(previous.get("stockDrift"))){
+            log.warn("秒杀券{}的Redis与数据库库存不一致：{}", voucherId, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * 补发台账中登记超过redrive-after仍未入库的订单：已入库的删除台账记录，未入库的重新发送并刷新登记时间
+     */
+    private void redrive(Long voucherId){
+        long deadline = System.currentTimeMillis() / 1000 - redriveAfterMillis / 1000;
+        List<VoucherOrder> expired = new ArrayList<>();
+        orderLedger.scan(voucherId, (orderId, value) -> {
+            if (expired.size() >= redriveBatch){
+                return;
+            }
+            //value：用户id:登记时间
+            int split = value.indexOf(':');
+            if (split < 0 || Long.parseLong(value.substring(split + 1)) > deadline){
+                return;
+            }
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(Long.valueOf(orderId));
+            voucherOrder.setUserId(Long.valueOf(value.substring(0, split)));
+            voucherOrder.setVoucherId(voucherId);
+            expired.add(voucherOrder);
+        });
+        if (expired.isEmpty()){
+            return;
+        }
+
+        Map<Long, VoucherOrder> byId = new HashMap<>();
+        for (VoucherOrder voucherOrder : expired){
+            byId.put(voucherOrder.getId(), voucherOrder);
+        }
+        //已入库但台账未删除（如删除时Redis异常）：直接删除台账记录
+        List<VoucherOrder> saved = new ArrayList<>();
+        for (VoucherOrder voucherOrder : voucherOrderMapper.selectBatchIds(byId.keySet())){
+            saved.add(byId.remove(voucherOrder.getId()));
+        }
+        if (!saved.isEmpty()){
+            orderLedger.remove(saved);
+        }
+        //未入库：重新发送
+        for (VoucherOrder voucherOrder : byId.values()){
+            orderPublisher.publish(voucherOrder.getId(), voucherOrder.getUserId(), voucherId);
+            orderLedger.touch(voucherId, voucherOrder.getId(), voucherOrder.getUserId());
+        }
+        if (!byId.isEmpty()){
+            redriven.addAndGet(byId.size());
+            log.warn("秒杀券{}补发了{}个未入库的订单", voucherId, byId.size());
+        }
+    }
+
+    /**
+     * 对账监控数据
+     * @return
+     */
+    public Map<String, Object> metrics(){
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("lastRunTime", lastRunTime);
+        metrics.put("redriven", redriven.get());
+        long totalStockDrift = 0;
+        for (Map<String, Object> item : voucherMetrics.values()){
+            totalStockDrift += (Long) item.get("stockDrift");
+        }
+        metrics.put("totalStockDrift", totalStockDrift);
+        metrics.put("vouchers", new HashMap<>(voucherMetrics));
+        return metrics;
+    }
+
+    private static void addCounts(Map<Long, Long> counts, List<Map<String, Object>> rows){
+        for (Map<String, Object> row : rows){
+            Long voucherId = ((Number) row.get("voucher_id")).longValue();
+            counts.merge(voucherId, ((Number) row.get("order_count")).longValue(), Long::sum);
+        }
+    }
+
+    private static long parseLong(String value){
+        return StrUtil.isBlank(value) ? 0 : Long.parseLong(value);
+    }
+
+    private static long size(Long size){
+        return size == null ? 0 : size;
+    }
+}
@@ -1,16 +1,23 @@
 package com.felix.listener;
 
+import com.felix.utils.OrderPublisher;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Resource;
+
 /**
  * rabbitmq生产确认回调函数
  */
 @Component
 @Slf4j
 public class MyCallBack implements RabbitTemplate.ConfirmCallback {
+
+    @Resource
+    private OrderPublisher orderPublisher;
+
     /**
      * 交换机不管是否收到消息的一个回调方法
      * @param correlationData 消息相关数据
@@ -25,5 +32,7 @@ public class MyCallBack implements RabbitTemplate.ConfirmCallback {
         }else{
             log.error("交换机获取 orderId 为{}消息失败，原因为{}",id,cause);
         }
+        //更新发布确认台账：ack移除，nack稍后重新发送
+        orderPublisher.onConfirm(id, ack);
     }
 }
@@ -0,0 +1,217 @@
+package com.felix.listener;
+
+import cn.hutool.core.lang.UUID;
+import com.felix.model.entity.VoucherOrder;
+import com.felix.service.IVoucherOrderService;
+import com.felix.utils.VoucherOrderMessageConverter;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.felix.model.constants.RabbitmqConstants.*;
+
+/**
+ * 死信订单处理
+ *
+ * 死信队列中的订单（队列A中超时、或消费失败被拒绝的订单）在这里入库，失败时不再立即重试：
+ *  1、按消息头 x-retry-count 中的已重试次数选择延迟重试队列（默认1s/10s/60s），过期后回到队列A重新消费
+ *  2、超过最大重试次数的订单进入停车场队列，排查后通过接口批量重放
+ * 重试消息经由延迟队列退避，数据库故障或毒消息不会以全速循环占用消费者。
+ * 转发使用发布确认：收到Broker的ack后才确认（移除）原消息，转发失败时原消息重新入队，订单不会丢失
+ */
+@Slf4j
+@Component
+public class OrderDeadLetterProcessor {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    @Resource
+    private AmqpAdmin amqpAdmin;
+
+    //各级重试队列的延迟（毫秒），重试次数超过级数后一直使用最后一级
+    @Value("${lyx.order.retry.delays:1000,10000,60000}")
+    private long[] delays;
+
+    //最大重试次数，超过后进入停车场队列
+    @Value("${lyx.order.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    //转发消息的发布确认id前缀（区别于订单id，OrderPublisher 的发布确认台账会忽略）
+    private static final String CORRELATION_PREFIX = "dead-letter:";
+
+    //转发失败时，原消息重新入队前的等待时间（毫秒），防止Broker异常时死信消息全速循环
+    private static final long REQUEUE_DELAY = 1000;
+
+    private static final MessagePropertiesConverter PROPERTIES_CONVERTER = new DefaultMessagePropertiesConverter();
+
+    //等待Broker确认转发消息的超时时间（毫秒）
+    @Value("${lyx.order.retry.confirm-timeout:5000}")
+    private long confirmTimeout;
+
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    /**
+     * 处理一条死信订单消息（不抛出异常）：入库失败的消息转发到重试队列或停车场队列
+     * @param message 订单消息
+     * @return true：已入库或已转发，可以确认原消息；false：转发失败，原消息需重新入队
+     */
+    public boolean handle(Message message){
+        try {
+            VoucherOrder voucherOrder = VoucherOrderMessageConverter.decode(message);
+            voucherOrderService.createVoucherOrder(voucherOrder);
+            return true;
+        } catch (Exception e) {
+            try {
+                retryLater(message, e);
+                return true;
+            } catch (Exception ex) {
+                log.error("订单消息转发到重试队列失败，{}毫秒后重新投递", REQUEUE_DELAY, ex);
+                pause();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 转发到延迟重试队列或停车场队列
+     */
+    private void retryLater(Message message, Exception cause){
+        MessageProperties properties = message.getMessageProperties();
+        int attempts = retryCount(properties);
+        if (attempts >= maxAttempts){
+            properties.setHeader("x-exception", String.valueOf(cause.getMessage()));
+            sendConfirmed(RETRY_EXCHANGE, PARKING_QUEUE, message);
+            parked.incrementAndGet();
+            log.error("订单消息重试{}次仍失败，转入停车场队列", attempts, cause);
+            return;
+        }
+        int tier = Math.min(attempts, delays.length - 1);
+        properties.setHeader(RETRY_COUNT_HEADER, attempts + 1);
+        sendConfirmed(RETRY_EXCHANGE, RETRY_QUEUE_PREFIX + tier, message);
+        retried.incrementAndGet();
+        log.warn("订单消息处理失败，{}毫秒后第{}次重试：{}", delays[tier], attempts + 1, cause.getMessage());
+    }
+
+    /**
+     * 批量重放停车场队列中的订单：重置重试次数后发回交换机A
+     * 手动确认方式取出消息，发回交换机A并收到Broker的ack后才确认，发送失败的消息退回停车场队列
+     * @param max 最多重放的数量
+     * @return 重放的数量
+     */
+    public int replay(int max){
+        int count = 0;
+        while (count < max){
+            try {
+                if (!Boolean.TRUE.equals(rabbitTemplate.execute(this::replayOne))){
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("重放停车场队列中的订单失败，已退回停车场队列", e);
+                break;
+            }
+            count++;
+        }
+        replayed.addAndGet(count);
+        if (count > 0){
+            log.info("已从停车场队列重放{}个订单", count);
+        }
+        return count;
+    }
+
+    /**
+     * 从停车场队列取出一条消息重放
+     * @return false：停车场队列已空
+     */
+    private Boolean replayOne(Channel channel) throws Exception {
+        GetResponse response = channel.basicGet(PARKING_QUEUE, false);
+        if (response == null){
+            return false;
+        }
+        long deliveryTag = response.getEnvelope().getDeliveryTag();
+        MessageProperties properties = PROPERTIES_CONVERTER.toMessageProperties(
+                response.getProps(), response.getEnvelope(), "UTF-8");
+        properties.getHeaders().remove(RETRY_COUNT_HEADER);
+        properties.getHeaders().remove("x-exception");
+        properties.getHeaders().remove("x-death");
+        try {
+            sendConfirmed(EXCHANGE, "msg", new Message(response.getBody(), properties));
+        } catch (Exception e) {
+            channel.basicNack(deliveryTag, false, true);
+            throw e;
+        }
+        channel.basicAck(deliveryTag, false);
+        return true;
+    }
+
+    /**
+     * 发送消息并等待Broker的发布确认
+     * @throws AmqpException 发送失败、nack或等待确认超时
+     */
+    private void sendConfirmed(String exchange, String routingKey, Message message){
+        CorrelationData correlationData = new CorrelationData(CORRELATION_PREFIX + UUID.randomUUID().toString(true));
+        rabbitTemplate.send(exchange, routingKey, message, correlationData);
+        CorrelationData.Confirm confirm;
+        try {
+            confirm = correlationData.getFuture().get(confirmTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmqpException("等待发布确认时被中断", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new AmqpException("等待发布确认失败", e);
+        }
+        if (!confirm.isAck()){
+            throw new AmqpException("消息未被Broker确认：" + confirm.getReason());
+        }
+    }
+
+    private static void pause(){
+        try {
+            Thread.sleep(REQUEUE_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 死信处理监控数据
+     */
+    public Map<String, Object> metrics(){
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("retried", retried.get());
+        metrics.put("parked", parked.get());
+        metrics.put("replayed", replayed.get());
+        QueueInformation parking = amqpAdmin.getQueueInfo(PARKING_QUEUE);
+        metrics.put("parkingQueue", parking == null ? 0 : parking.getMessageCount());
+        return metrics;
+    }
+
+    private static int retryCount(MessageProperties properties){
+        Object count = properties.getHeaders().get(RETRY_COUNT_HEADER);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+}
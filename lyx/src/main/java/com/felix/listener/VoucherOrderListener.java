@@ -1,13 +1,18 @@
 package com.felix.listener;
 
-import cn.hutool.json.JSONUtil;
 import com.felix.model.entity.VoucherOrder;
 import com.felix.service.impl.VoucherOrderServiceImpl;
+import com.felix.utils.VoucherOrderMessageConverter;
+import com.rabbitmq.client.Channel;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.felix.model.constants.RabbitmqConstants.*;
 
@@ -20,25 +25,49 @@ public class VoucherOrderListener {
     @Resource
     private VoucherOrderServiceImpl voucherOrderService;
 
+    @Resource
+    private OrderDeadLetterProcessor deadLetterProcessor;
+
     /**
      * 消费者：监听队列A获取订单信息并存入数据库
-     * @param voucherOrderStr
+     * （开启批量消费模式 lyx.order.batch.enabled 后不再启动）
+     * @param voucherOrder 由 VoucherOrderMessageConverter 解码的订单
      */
-    @RabbitListener(queues = QUEUE)
+    @RabbitListener(queues = QUEUE, autoStartup = "#{!${lyx.order.batch.enabled:false}}")
     @Transactional
-    public void listenQueueA(String voucherOrderStr){
-        VoucherOrder voucherOrder = JSONUtil.toBean(voucherOrderStr,VoucherOrder.class);
+    public void listenQueueA(VoucherOrder voucherOrder){
         voucherOrderService.createVoucherOrder(voucherOrder);
     }
 
     /**
-     * 消费者：监听死信队列获取溢出或超时订单信息并存入数据库
-     * @param voucherOrderStr
+     * 消费者：批量监听队列A获取订单信息并存入数据库
+     * 整批订单在同一个事务中多行插入，并按秒杀券id合并扣减库存，事务提交后整批确认
+     * @param messages 一批订单消息
      */
-    @RabbitListener(queues = DEAD_QUEUE)
-    @Transactional
-    public void listenDeadQueue(String voucherOrderStr){
-        VoucherOrder voucherOrder = JSONUtil.toBean(voucherOrderStr,VoucherOrder.class);
-        voucherOrderService.createVoucherOrder(voucherOrder);
+    @RabbitListener(queues = QUEUE, containerFactory = "batchListenerContainerFactory",
+            autoStartup = "${lyx.order.batch.enabled:false}")
+    public void listenQueueABatch(List<Message> messages){
+        List<VoucherOrder> voucherOrders = new ArrayList<>(messages.size());
+        for (Message message : messages){
+            voucherOrders.add(VoucherOrderMessageConverter.decode(message));
+        }
+        voucherOrderService.createVoucherOrderBatch(voucherOrders);
+    }
+
+    /**
+     * 消费者：监听死信队列获取溢出、超时或消费失败的订单信息并存入数据库
+     * 入库失败时由 OrderDeadLetterProcessor 按重试次数转发到延迟重试队列或停车场队列，不在死信队列中循环；
+     * 手动确认：转发收到Broker的ack后才确认，转发失败时重新入队（死信队列没有再下一级的死信交换机）
+     * @param message 订单消息
+     * @param channel 消费者通道
+     */
+    @RabbitListener(queues = DEAD_QUEUE, ackMode = "MANUAL")
+    public void listenDeadQueue(Message message, Channel channel) throws IOException {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        if (deadLetterProcessor.handle(message)){
+            channel.basicAck(deliveryTag, false);
+        } else {
+            channel.basicNack(deliveryTag, false, true);
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.felix.listener;
+
+import com.felix.utils.VoucherOrderMessageConverter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageListener;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.felix.model.constants.RabbitmqConstants.SHARD_QUEUE_PREFIX;
+
+/**
+ * rabbitmq分片消费端（开启 lyx.order.shard.enabled 后启动）
+ *
+ * 每个分片队列一个监听容器，各分片并行消费；同一秒杀券的订单只会进入一个分片，
+ * concurrency 为1时同一秒杀券的订单按发送顺序入库，库存扣减合并等逻辑不受影响
+ */
+@Slf4j
+@Component
+public class VoucherOrderShardListener implements SmartLifecycle {
+
+    @Resource
+    private VoucherOrderListener voucherOrderListener;
+
+    @Resource
+    private SimpleRabbitListenerContainerFactoryConfigurer configurer;
+
+    @Resource
+    private ConnectionFactory connectionFactory;
+
+    //是否启用分片消费
+    @Value("${lyx.order.shard.enabled:false}")
+    private boolean enabled;
+
+    //分片队列数（须与声明的分片队列数一致）
+    @Value("${lyx.order.shard.count:4}")
+    private int shards;
+
+    //每个分片的预取数量
+    @Value("${lyx.order.shard.prefetch:50}")
+    private int prefetch;
+
+    //每个分片的消费者数量（大于1时同一秒杀券的订单不再保证顺序）
+    @Value("${lyx.order.shard.concurrency:1}")
+    private int concurrency;
+
+    private final List<SimpleMessageListenerContainer> containers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || running){
+            return;
+        }
+        //1、按 application.yaml 的监听配置创建容器工厂，覆盖预取数量和消费者数量
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setPrefetchCount(prefetch);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(concurrency);
+
+        //2、每个分片队列创建一个监听容器，订单通过队列A的监听方法在事务中入库
+        MessageListener listener = message ->
+                voucherOrderListener.listenQueueA(VoucherOrderMessageConverter.decode(message));
+        for (int i = 0; i < shards; i++){
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("orderShard" + i);
+            endpoint.setQueueNames(SHARD_QUEUE_PREFIX + i);
+            endpoint.setMessageListener(listener);
+            SimpleMessageListenerContainer container = factory.createListenerContainer(endpoint);
+            container.afterPropertiesSet();
+            container.start();
+            containers.add(container);
+        }
+        running = true;
+        log.info("已启动{}个订单分片消费容器，prefetch={}，concurrency={}", shards, prefetch, concurrency);
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (SimpleMessageListenerContainer container : containers){
+            container.stop();
+        }
+        containers.clear();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,300 @@
+package com.felix.listener;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.felix.model.entity.VoucherOrder;
+import com.felix.service.IVoucherOrderService;
+import com.felix.utils.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * Redis Stream消费端
+ *
+ * 在消费者组g1中启动多个消费者（名称带上节点标识，各节点不重复），每次 XREADGROUP COUNT n 批量读取订单并批量入库；
+ * 定期用 XAUTOCLAIM 将其他消费者（如已宕机的节点）长时间未确认的消息转移给自己处理
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamConsumer {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private RedisScriptRegistry scriptRegistry;
+
+    //是否启用Stream消费者
+    @Value("${lyx.order.stream.enabled:false}")
+    private boolean enabled;
+
+    //本节点的消费者数量
+    @Value("${lyx.order.stream.consumers:4}")
+    private int consumerCount;
+
+    //每次读取的最大消息数
+    @Value("${lyx.order.stream.batch-size:50}")
+    private int batchSize;
+
+    //无消息时阻塞等待的时间（毫秒）
+    @Value("${lyx.order.stream.block:2000}")
+    private long blockMillis;
+
+    //pending消息空闲多久后允许被其他消费者转移（毫秒）
+    @Value("${lyx.order.stream.claim-idle:60000}")
+    private long claimIdleMillis;
+
+    //两次转移检查之间的间隔（毫秒）
+    @Value("${lyx.order.stream.claim-interval:10000}")
+    private long claimIntervalMillis;
+
+    private final List<StreamOrderConsumer> consumers = new ArrayList<>();
+
+    private ExecutorService consumerExecutor;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init(){
+        if (!enabled){
+            return;
+        }
+        createGroupIfAbsent();
+        //消费者名称：节点标识（pid@host）+ 序号
+        String node = ManagementFactory.getRuntimeMXBean().getName();
+        running = true;
+        consumerExecutor = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 0; i < consumerCount; i++){
+            StreamOrderConsumer consumer = new StreamOrderConsumer(node + "-c" + i);
+            consumers.add(consumer);
+            consumerExecutor.submit(consumer);
+        }
+        log.info("已启动{}个Stream订单消费者", consumerCount);
+    }
+
+    @PreDestroy
+    public void destroy(){
+        running = false;
+        if (consumerExecutor != null){
+            consumerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 创建消费者组（Stream不存在时一并创建）
+     */
+    private void createGroupIfAbsent(){
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xGroupCreate(SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8),
+                        SECKILL_ORDER_GROUP, ReadOffset.from("0"), true);
+                return null;
+            });
+        } catch (Exception e) {
+            //BUSYGROUP：消费者组已存在
+            log.debug("消费者组{}已存在", SECKILL_ORDER_GROUP);
+        }
+    }
+
+    /**
+     * 消费监控数据：Stream长度、各消费者的pending数量、已处理数量以及最近一条消息的处理延迟
+     * @return
+     */
+    public Map<String, Object> metrics(){
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        if (!enabled){
+            return metrics;
+        }
+        metrics.put("streamLength", stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM));
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+        Map<String, Long> pendingPerConsumer = summary == null ? Collections.emptyMap() : summary.getPendingMessagesPerConsumer();
+        List<Map<String, Object>> consumerMetrics = new ArrayList<>();
+        for (StreamOrderConsumer consumer : consumers){
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", consumer.name);
+            item.put("pending", pendingPerConsumer.getOrDefault(consumer.name, 0L));
+            item.put("processed", consumer.processed.get());
+            item.put("failed", consumer.failed.get());
+            item.put("claimed", consumer.claimed.get());
+            item.put("lagMillis", consumer.lagMillis);
+            consumerMetrics.add(item);
+        }
+        metrics.put("consumers", consumerMetrics);
+        return metrics;
+    }
+
+    /**
+     * 单个消费者：批量读取新消息并入库，异常时处理自己的pending-list，定期转移其他消费者的空闲消息
+     */
+    private class StreamOrderConsumer implements Runnable {
+
+        private final String name;
+
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong claimed = new AtomicLong();
+        //最近一条消息从写入Stream到处理完成的延迟（毫秒）
+        private volatile long lagMillis;
+
+        private long lastClaimTime;
+
+        StreamOrderConsumer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            //启动时先处理上次遗留在自己pending-list中的消息
+            handlePendingList();
+            while (running) {
+                try {
+                    // 1.批量获取消息队列中的订单信息 XREADGROUP GROUP g1 name COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, name),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed())
+                    );
+                    // 2.有消息则批量入库
+                    if (list != null && !list.isEmpty()) {
+                        handleRecords(list);
+                    }
+                    // 3.定期转移其他消费者的空闲消息
+                    claimIdleMessages();
+                } catch (Exception e) {
+                    if (!running){
+                        break;
+                    }
+                    log.error("消费者{}处理订单异常", name, e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        /**
+         * 批量入库并确认一批消息；整批失败时逐条处理，失败的消息留在pending-list中等待重试
+         */
+        private void handleRecords(List<MapRecord<String, Object, Object>> records){
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records){
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+            try {
+                voucherOrderService.createVoucherOrderBatch(voucherOrders);
+                acknowledge(records);
+                processed.addAndGet(records.size());
+            } catch (Exception e) {
+                log.error("消费者{}批量处理订单异常，改为逐条处理", name, e);
+                for (int i = 0; i < records.size(); i++){
+                    MapRecord<String, Object, Object> record = records.get(i);
+                    try {
+                        voucherOrderService.createVoucherOrder(voucherOrders.get(i));
+                        acknowledge(Collections.singletonList(record));
+                        processed.incrementAndGet();
+                    } catch (Exception ex) {
+                        failed.incrementAndGet();
+                        log.error("消费者{}处理订单{}异常", name, record.getId(), ex);
+                    }
+                }
+            }
+            //消息id的前半部分是写入Stream时的毫秒时间戳
+            lagMillis = System.currentTimeMillis() - records.get(records.size() - 1).getId().getTimestamp();
+        }
+
+        /**
+         * 批量确认消息 XACK stream.orders g1 id...
+         */
+        private void acknowledge(List<MapRecord<String, Object, Object>> records){
+            RecordId[] ids = new RecordId[records.size()];
+            for (int i = 0; i < records.size(); i++){
+                ids[i] = records.get(i).getId();
+            }
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, ids);
+        }
+
+        /**
+         * 处理自己pending-list中已读取但未确认的消息
+         * 遇到无法处理的消息时不再死循环，保留在pending-list中，等下次异常或转移时再重试
+         */
+        private void handlePendingList() {
+            while (running) {
+                try {
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 name COUNT n STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, name),
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from("0"))
+                    );
+                    // 2.pending-list为空，结束循环
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    long failedBefore = failed.get();
+                    handleRecords(list);
+                    // 3.本轮有消息处理失败：退出，避免对异常消息疯狂循环处理
+                    if (failed.get() > failedBefore){
+                        break;
+                    }
+                } catch (Exception e) {
+                    log.error("消费者{}处理pending订单异常", name, e);
+                    try {
+                        //避免对异常消息疯狂循环处理
+                        Thread.sleep(20);
+                    } catch (InterruptedException a) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * XAUTOCLAIM：将空闲超过claimIdleMillis的pending消息转移给自己，再从自己的pending-list中处理
+         */
+        @SuppressWarnings("unchecked")
+        private void claimIdleMessages(){
+            long now = System.currentTimeMillis();
+            if (now - lastClaimTime < claimIntervalMillis){
+                return;
+            }
+            lastClaimTime = now;
+            String start = "0-0";
+            int total = 0;
+            do {
+                List<Object> result = scriptRegistry.execute(RedisScriptRegistry.STREAM_AUTOCLAIM,
+                        Collections.singletonList(SECKILL_ORDER_STREAM),
+                        SECKILL_ORDER_GROUP, name, String.valueOf(claimIdleMillis), start, String.valueOf(batchSize));
+                if (result == null || result.size() < 2){
+                    break;
+                }
+                start = String.valueOf(result.get(0));
+                total += ((List<Object>) result.get(1)).size();
+            } while (!"0-0".equals(start) && running);
+            if (total > 0){
+                claimed.addAndGet(total);
+                log.info("消费者{}转移了{}条空闲消息", name, total);
+                handlePendingList();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.felix.mapper;
+
+import com.felix.model.entity.SeckillVoucherBucket;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+ * <p>
+ * 秒杀券分桶库存表 Mapper 接口
+ * </p>
+ */
+public interface SeckillVoucherBucketMapper extends BaseMapper<SeckillVoucherBucket> {
+
+}
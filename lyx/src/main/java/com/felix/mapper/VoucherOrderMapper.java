@@ -2,6 +2,11 @@ package com.felix.mapper;
 
 import com.felix.model.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -10,4 +15,54 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行插入订单（一条 INSERT 语句写入整批订单）
+     * @param voucherOrders 订单列表
+     * @return 插入行数
+     */
+    int insertBatch(@Param("voucherOrders") List<VoucherOrder> voucherOrders);
+
+    /**
+     * 查询已存在的订单id
+     * @param ids 订单id
+     * @return 已入库的订单id
+     */
+    List<Long> selectExistingIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 流式查询秒杀券的下单用户id（MySQL逐行返回，不会一次性把所有订单加载到内存）
+     * 需在事务中遍历，事务结束时游标关闭
+     * @param voucherId 秒杀券id
+     * @return 用户id游标
+     */
+    Cursor<Long> scanUserIds(@Param("voucherId") Long voucherId);
+
+    /**
+     * 按秒杀券统计订单id在 (lowerId, upperId] 范围内的订单数（按主键范围扫描）
+     * @param lowerId 订单id下界（不含），为空时不限
+     * @param upperId 订单id上界（含），为空时不限
+     * @return voucher_id、order_count
+     */
+    List<Map<String, Object>> countByVoucher(@Param("lowerId") Long lowerId, @Param("upperId") Long upperId);
+
+    /**
+     * 查询秒杀券尚未扣减数据库库存的订单id（开启库存扣减合并时）
+     * @param voucherId 秒杀券id
+     * @param limit 最多返回的数量
+     * @return 订单id
+     */
+    List<Long> selectUnsettledIds(@Param("voucherId") Long voucherId, @Param("limit") int limit);
+
+    /**
+     * 将订单标记为已扣减库存（已被其他节点标记的订单不再更新）
+     * @param ids 订单id
+     * @return 本次标记的订单数
+     */
+    int settleStock(@Param("ids") List<Long> ids);
+
+    /**
+     * 查询存在未扣减库存订单的秒杀券id
+     * @return 秒杀券id
+     */
+    List<Long> selectUnsettledVoucherIds();
 }
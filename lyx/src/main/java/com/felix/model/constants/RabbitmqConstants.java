@@ -5,4 +5,10 @@ public class RabbitmqConstants {
     public static final String QUEUE = "simple.queueA";
     public static final String DEAD_EXCHANGE = "deadExchange";
     public static final String DEAD_QUEUE = "dead.queue";
+    public static final String RETRY_EXCHANGE = "orderRetryExchange";
+    public static final String RETRY_QUEUE_PREFIX = "order.retry.";
+    public static final String PARKING_QUEUE = "order.parking";
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String SHARD_EXCHANGE = "orderShardExchange";
+    public static final String SHARD_QUEUE_PREFIX = "order.shard.";
 }
@@ -12,11 +12,21 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
     public static final String CACHE_SHOP_TYPE = "cache:shop:type";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_BITMAP_KEY = "seckill:order:bitmap:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_TICKET_KEY = "seckill:ticket:";
+    public static final String SECKILL_META_KEY = "seckill:meta:";
+    public static final String SECKILL_LEDGER_KEY = "seckill:ledger:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
 
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
@@ -44,6 +44,16 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * Redis库存分片数（创建时确定，Redis数据丢失后据此重建）
+     */
+    private Integer stockShards;
+
+    /**
+     * 一人一单去重方式：set / bitmap（创建时确定，Redis数据丢失后据此重建）
+     */
+    private String dedup;
+
     /**
      * 更新时间
      */
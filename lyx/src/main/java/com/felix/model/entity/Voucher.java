@@ -82,6 +82,24 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存分片数（为空时使用默认配置，大于1时库存拆分到多个Redis key）
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 数据库库存分桶数（为空时使用默认配置，大于1时库存拆分到多行分桶）
+     */
+    @TableField(exist = false)
+    private Integer stockBuckets;
+
+    /**
+     * 一人一单去重方式：set（Redis集合，为空时使用默认配置）/ bitmap（按用户id分块的位图，仅用于库存未分片的秒杀券）
+     */
+    @TableField(exist = false)
+    private String dedup;
+
     /**
      * 创建时间
      */
@@ -69,5 +69,9 @@ public class VoucherOrder implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 数据库库存是否已扣减，0：未扣减（开启库存扣减合并时入库，由合并器扣减后置为1）；1：已扣减
+     */
+    private Integer stockSettled;
 
 }
@@ -10,4 +10,82 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 扣减秒杀券库存 stock = stock - count（使用乐观锁：库存不足count时不扣减）
+     * @param voucherId 秒杀券id
+     * @param count 扣减数量
+     * @return 是否扣减成功
+     */
+    boolean decreaseStock(Long voucherId, int count);
+
+    /**
+     * 扣减秒杀券库存；分桶库存的秒杀券优先扣减hint对应的分桶，库存不足时按分桶编号升序尝试编号更大的分桶
+     * @param voucherId 秒杀券id
+     * @param count 扣减数量
+     * @param hint 选择分桶的依据（如订单id）
+     * @return 是否扣减成功（失败时不扣减任何库存）
+     */
+    boolean decreaseStock(Long voucherId, int count, long hint);
+
+    /**
+     * 扣减秒杀券库存，库存不足count时扣减剩余的全部库存
+     * @param voucherId 秒杀券id
+     * @param count 扣减数量
+     * @return 实际扣减的数量
+     */
+    int decreaseStockAtMost(Long voucherId, int count);
+
+    /**
+     * 扣减秒杀券库存，库存不足count时扣减剩余的全部库存（分桶从hint对应的分桶开始按编号升序扣减）
+     * @param voucherId 秒杀券id
+     * @param count 扣减数量
+     * @param hint 选择分桶的依据（如订单id）
+     * @return 实际扣减的数量
+     */
+    int decreaseStockAtMost(Long voucherId, int count, long hint);
+
+    /**
+     * 确定新建秒杀券的数据库库存分桶数
+     * @param requested 请求中指定的分桶数，为空时使用默认配置
+     * @return 分桶数（至少为1）
+     */
+    int resolveBuckets(Integer requested);
+
+    /**
+     * 新建秒杀券时将库存平均拆分到多行分桶
+     * @param voucherId 秒杀券id
+     * @param stock 总库存
+     * @param buckets 分桶数
+     */
+    void createBuckets(Long voucherId, int stock, int buckets);
+
+    /**
+     * 补库存时将新增库存平均分配到各分桶
+     * @param voucherId 秒杀券id
+     * @param count 新增库存
+     */
+    void increaseBucketStock(Long voucherId, int count);
+
+    /**
+     * 查询秒杀券的分桶数
+     * @param voucherId 秒杀券id
+     * @return 分桶数，未分桶的秒杀券返回1
+     */
+    int bucketsOf(Long voucherId);
+
+    /**
+     * 查询秒杀券在数据库中的剩余库存（分桶库存的秒杀券返回各分桶之和）
+     * @param voucherId 秒杀券id
+     * @return 剩余库存，秒杀券不存在时返回null
+     */
+    Integer stockOf(Long voucherId);
+
+    /**
+     * 合并扣减秒杀券尚未扣减库存的订单（库存扣减合并使用）：在同一个事务中将订单标记为已扣减，
+     * 并按实际标记的订单数扣减库存，多个节点同时执行也不会重复扣减
+     * @param voucherId 秒杀券id
+     * @param max 本次最多处理的订单数
+     * @return 本次查询到的未扣减订单数（等于max时可能还有剩余）
+     */
+    int settleAggregatedStock(Long voucherId, int max);
 }
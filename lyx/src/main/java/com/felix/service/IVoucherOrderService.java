@@ -4,6 +4,9 @@ import com.felix.model.dto.Result;
 import com.felix.model.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -28,6 +31,14 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     public Result seckillVoucher(Long voucherId);
 
+    /**
+     * 秒杀券抢购（非阻塞版本）
+     * 生成订单id、执行lua脚本、发送订单消息依次异步执行，不占用servlet线程
+     * @param voucherId 秒杀券ID
+     * @return
+     */
+    CompletableFuture<Result> seckillVoucherAsync(Long voucherId);
+
     /**
      * 保存订单信息1（使用分布式锁实现秒杀券抢单）
      * @param voucherId
@@ -47,4 +58,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      * @param voucherOrder
      */
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量保存订单信息（消息队列批量消费，同一事务内多行插入并按秒杀券合并扣减库存）
+     * @param voucherOrders 一批订单
+     */
+    void createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
 }
@@ -15,4 +15,11 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 秒杀券补库存（同时更新数据库和Redis中的库存，并清除售罄标记）
+     * @param voucherId 秒杀券id
+     * @param count 补充的库存数量
+     */
+    void restockSeckillVoucher(Long voucherId, Integer count);
 }
@@ -1,17 +1,266 @@
 package com.felix.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.felix.mapper.SeckillVoucherBucketMapper;
 import com.felix.model.entity.SeckillVoucher;
 import com.felix.mapper.SeckillVoucherMapper;
+import com.felix.mapper.VoucherOrderMapper;
+import com.felix.model.entity.SeckillVoucherBucket;
 import com.felix.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
  * </p>
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private SeckillVoucherBucketMapper seckillVoucherBucketMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    //新建秒杀券时默认的数据库库存分桶数（1表示不分桶）
+    @Value("${lyx.seckill.stock-buckets:1}")
+    private int defaultBuckets;
+
+    //本地缓存分桶数的有效期（毫秒）：其他节点新建的分桶在有效期后被读取到
+    private static final long BUCKET_COUNT_TTL = 60000;
+
+    //秒杀券id -> 分桶数（本地缓存，带过期时间；没有分桶也缓存，否则每次扣减库存都要多查一次数据库）
+    private final Map<Long, BucketCount> bucketCounts = new ConcurrentHashMap<>();
+
+    private static final class BucketCount {
+        private final int buckets;
+        private final long expireAt;
+
+        private BucketCount(int buckets, long expireAt) {
+            this.buckets = buckets;
+            this.expireAt = expireAt;
+        }
+    }
+
+    //库存不足时扣减剩余库存的最多尝试次数（读取库存后被并发修改则重试）
+    private static final int MAX_DECREASE_ATTEMPTS = 3;
+
+    @Override
+    public boolean decreaseStock(Long voucherId, int count) {
+        return decreaseStock(voucherId, count, ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+    }
+
+    @Override
+    public boolean decreaseStock(Long voucherId, int count, long hint) {
+        int buckets = bucketsOf(voucherId);
+        if (buckets <= 1){
+            return update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+        }
+
+        //1、先在hint对应的分桶上扣减，库存不足时按分桶编号升序尝试编号更大的分桶
+        //（所有事务都按分桶编号升序加行锁，且不回头尝试编号更小的分桶：可重复读下扣减失败的UPDATE仍持有该行的行锁，
+        //  持有编号大的分桶再去等待编号小的分桶，两个事务可能互相等待而死锁；编号小于home的分桶由home更小的订单扣减）
+        int home = (int) Math.floorMod(hint, (long) buckets);
+        for (int bucketNo = home; bucketNo < buckets; bucketNo++){
+            if (decreaseBucketStock(voucherId, bucketNo, count)){
+                return true;
+            }
+        }
+
+        //2、没有单个分桶能满足本次扣减：按相同顺序逐个分桶按1扣减（仅在库存快耗尽时出现）
+        int[] deducted = new int[buckets];
+        int remaining = count;
+        for (int bucketNo = home; bucketNo < buckets && remaining > 0; bucketNo++){
+            while (remaining > 0 && decreaseBucketStock(voucherId, bucketNo, 1)){
+                deducted[bucketNo]++;
+                remaining--;
+            }
+        }
+        if (remaining == 0){
+            return true;
+        }
+        //3、所有分桶加起来也不够：归还已扣减的部分，与未分桶时一样整体不扣减
+        for (int bucketNo = 0; bucketNo < buckets; bucketNo++){
+            if (deducted[bucketNo] > 0){
+                increaseBucketStock(voucherId, bucketNo, deducted[bucketNo]);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int decreaseStockAtMost(Long voucherId, int count) {
+        //从0号分桶开始，可以扣减所有分桶的库存（合并扣减每个时间窗口只扣减一次，不存在热点行竞争）
+        return decreaseStockAtMost(voucherId, count, 0);
+    }
+
+    @Override
+    public int decreaseStockAtMost(Long voucherId, int count, long hint) {
+        //1、库存充足：整体扣减
+        if (decreaseStock(voucherId, count, hint)){
+            return count;
+        }
+        //2、库存不足：从hint对应的分桶开始按编号升序扣减各行剩余的库存（与 decreaseStock 的加锁顺序一致）
+        int buckets = bucketsOf(voucherId);
+        if (buckets <= 1){
+            return decreaseRowAtMost(voucherId, -1, count);
+        }
+        int deducted = 0;
+        for (int bucketNo = (int) Math.floorMod(hint, (long) buckets); bucketNo < buckets && deducted < count; bucketNo++){
+            deducted += decreaseRowAtMost(voucherId, bucketNo, count - deducted);
+        }
+        return deducted;
+    }
+
+    @Override
+    public int resolveBuckets(Integer requested) {
+        int buckets = requested != null ? requested : defaultBuckets;
+        return Math.max(buckets, 1);
+    }
+
+    @Override
+    public void createBuckets(Long voucherId, int stock, int buckets) {
+        int base = stock / buckets;
+        int remainder = stock % buckets;
+        for (int i = 0; i < buckets; i++){
+            SeckillVoucherBucket bucket = new SeckillVoucherBucket();
+            bucket.setVoucherId(voucherId);
+            bucket.setBucketNo(i);
+            bucket.setStock(base + (i < remainder ? 1 : 0));
+            seckillVoucherBucketMapper.insert(bucket);
+        }
+        bucketCounts.put(voucherId, new BucketCount(buckets, System.currentTimeMillis() + BUCKET_COUNT_TTL));
+    }
+
+    @Override
+    public void increaseBucketStock(Long voucherId, int count) {
+        int buckets = bucketsOf(voucherId);
+        int base = count / buckets;
+        int remainder = count % buckets;
+        for (int i = 0; i < buckets; i++){
+            int bucketCount = base + (i < remainder ? 1 : 0);
+            if (bucketCount > 0){
+                increaseBucketStock(voucherId, i, bucketCount);
+            }
+        }
+    }
+
+    @Override
+    public int bucketsOf(Long voucherId) {
+        long now = System.currentTimeMillis();
+        BucketCount cached = bucketCounts.get(voucherId);
+        if (cached != null && cached.expireAt > now){
+            return cached.buckets;
+        }
+        Integer count = seckillVoucherBucketMapper.selectCount(
+                new QueryWrapper<SeckillVoucherBucket>().eq("voucher_id", voucherId));
+        int buckets = count == null || count == 0 ? 1 : count;
+        bucketCounts.put(voucherId, new BucketCount(buckets, now + BUCKET_COUNT_TTL));
+        return buckets;
+    }
+
+    @Override
+    public Integer stockOf(Long voucherId) {
+        if (bucketsOf(voucherId) <= 1){
+            SeckillVoucher seckillVoucher = getById(voucherId);
+            return seckillVoucher == null ? null : seckillVoucher.getStock();
+        }
+        int total = 0;
+        for (SeckillVoucherBucket bucket : seckillVoucherBucketMapper.selectList(
+                new QueryWrapper<SeckillVoucherBucket>().eq("voucher_id", voucherId))){
+            total += bucket.getStock();
+        }
+        return total;
+    }
+
+    @Override
+    @Transactional
+    public int settleAggregatedStock(Long voucherId, int max) {
+        //1、查询尚未扣减库存的订单
+        List<Long> orderIds = voucherOrderMapper.selectUnsettledIds(voucherId, max);
+        if (orderIds.isEmpty()){
+            return 0;
+        }
+        //2、标记为已扣减：其他节点同时处理同一批订单时只有一方能标记成功，按实际标记的数量扣减
+        int settled = voucherOrderMapper.settleStock(orderIds);
+        //3、扣减库存，库存不足n时扣减剩余的全部库存（stock >= n 的条件不满足时不能一行都不扣）
+        if (settled > 0){
+            int deducted = decreaseStockAtMost(voucherId, settled);
+            if (deducted < settled){
+                //库存已在Redis中预扣，这里库存不足说明数据库库存与Redis不一致，只记录不重试
+                log.error("秒杀券" + voucherId + "合并扣减库存" + settled + "时数据库库存不足，实际扣减" + deducted);
+            }
+        }
+        return orderIds.size();
+    }
+
+    /**
+     * 扣减一行（秒杀券或单个分桶）的库存，库存不足count时扣减剩余的全部库存
+     * 先读取库存再用乐观锁扣减，被并发修改时重新读取
+     * @param bucketNo 分桶编号，-1表示未分桶
+     * @return 实际扣减的数量
+     */
+    private int decreaseRowAtMost(Long voucherId, int bucketNo, int count){
+        for (int attempt = 0; attempt < MAX_DECREASE_ATTEMPTS; attempt++){
+            Integer stock;
+            if (bucketNo < 0){
+                SeckillVoucher seckillVoucher = getById(voucherId);
+                stock = seckillVoucher == null ? null : seckillVoucher.getStock();
+            } else {
+                SeckillVoucherBucket bucket = seckillVoucherBucketMapper.selectOne(new QueryWrapper<SeckillVoucherBucket>()
+                        .eq("voucher_id", voucherId)
+                        .eq("bucket_no", bucketNo));
+                stock = bucket == null ? null : bucket.getStock();
+            }
+            int amount = Math.min(count, stock == null ? 0 : stock);
+            if (amount <= 0){
+                return 0;
+            }
+            boolean success = bucketNo < 0
+                    ? update().setSql("stock = stock - " + amount).eq("voucher_id", voucherId).ge("stock", amount).update()
+                    : decreaseBucketStock(voucherId, bucketNo, amount);
+            if (success){
+                return amount;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 增加单个分桶的库存
+     */
+    private void increaseBucketStock(Long voucherId, int bucketNo, int count){
+        seckillVoucherBucketMapper.update(null, new UpdateWrapper<SeckillVoucherBucket>()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .eq("bucket_no", bucketNo));
+    }
+
+    /**
+     * 扣减单个分桶的库存（使用乐观锁：库存不足count时不扣减）
+     */
+    private boolean decreaseBucketStock(Long voucherId, int bucketNo, int count){
+        return seckillVoucherBucketMapper.update(null, new UpdateWrapper<SeckillVoucherBucket>()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .eq("bucket_no", bucketNo)
+                .ge("stock", count)) > 0;
+    }
 }
@@ -66,6 +66,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         //Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY,id,Shop.class,LOCK_SHOP_KEY,this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES);
 
+        //Shop shop = cacheClient.queryWithEarlyRefresh(CACHE_SHOP_KEY,id,Shop.class,LOCK_SHOP_KEY,this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES);
+
         Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY,id,Shop.class,LOCK_SHOP_KEY,this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES);
 
         if (shop == null){
@@ -320,8 +322,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //1、修改数据库
         updateById(shop);
 
-        //2、删除Redis中数据
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2、删除Redis中数据，并通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
         return Result.ok(id);
     }
 
@@ -1,7 +1,5 @@
 package com.felix.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.json.JSONUtil;
 import com.felix.model.dto.Result;
 import com.felix.model.entity.SeckillVoucher;
 import com.felix.model.entity.VoucherOrder;
@@ -10,32 +8,56 @@ import com.felix.mapper.VoucherOrderMapper;
 import com.felix.service.ISeckillVoucherService;
 import com.felix.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.felix.utils.IdGenerator;
+import com.felix.utils.OrderJournal;
+import com.felix.utils.OrderPublishLedger;
+import com.felix.utils.OrderPublisher;
+import com.felix.utils.OrderRingBuffer;
+import com.felix.utils.ProcessedOrderFilter;
 import com.felix.utils.RedisIdWorker;
+import com.felix.utils.RedisScriptRegistry;
+import com.felix.utils.SeckillSoldOutRegistry;
+import com.felix.utils.SeckillStockAggregator;
+import com.felix.utils.SeckillStockSharding;
 import com.felix.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-
-import static com.felix.model.constants.RabbitmqConstants.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_STREAM;
 
 /**
  * <p>
@@ -49,26 +71,178 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    //全局唯一Id生成器（默认 RedisIdWorker，lyx.id.type=snowflake 时为 SnowflakeIdWorker）
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
     @Resource
     private RedissonClient redissonClient;
 
     @Resource
     private RabbitTemplate rabbitTemplate;
 
-    //lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    @Resource
+    private SeckillStockAggregator stockAggregator;
+
+    @Resource
+    private OrderPublisher orderPublisher;
+
+    @Resource
+    private OrderPublishLedger orderLedger;
+
+    @Resource
+    private ProcessedOrderFilter processedOrders;
+
+    //是否使用Redis Stream代替RabbitMQ传递订单
+    @Value("${lyx.order.stream.enabled:false}")
+    private boolean streamEnabled;
+
+    //是否在lua脚本中同时生成订单序列号（省去单独INCR的一次往返，仅用于RabbitMQ下单且未分片的秒杀券）
+    @Value("${lyx.seckill.combined-id:false}")
+    private boolean combinedId;
+
+    //lua脚本注册中心（启动时预加载，执行时只发送EVALSHA）
+    @Resource
+    private RedisScriptRegistry scriptRegistry;
+
+    //非阻塞秒杀中发送订单消息的线程池的队列容量
+    private static final int SECKILL_SEND_QUEUE_CAPACITY = 10000;
+
+    //非阻塞秒杀中发送订单消息的线程池（避免在Lettuce的IO线程上执行阻塞操作）
+    //队列有界，队列已满时任务的future以异常结束（系统繁忙），绝不在提交线程（Lettuce的IO线程）上执行
+    private static final ThreadPoolExecutor SECKILL_SEND_EXECUTOR = new ThreadPoolExecutor(8, 8,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SECKILL_SEND_QUEUE_CAPACITY),
+            (task, executor) -> ((SendTask<?>) task).future
+                    .completeExceptionally(new RejectedExecutionException("系统繁忙，请稍后重试")));
+
+    //非阻塞秒杀中未完成的请求数上限：在预扣库存之前获取，请求结束后释放。
+    //每个请求在线程池中同时最多有一个任务，许可数不超过队列容量，预扣成功的订单提交发送任务时不会被拒绝
+    private static final Semaphore SECKILL_SEND_PERMITS = new Semaphore(SECKILL_SEND_QUEUE_CAPACITY);
+
+    /**
+     * 发送线程池中的任务，被拒绝时由拒绝策略结束其future
+     */
+    private static final class SendTask<T> implements Runnable {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Supplier<T> supplier;
+
+        private SendTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 在发送线程池中执行
+     * @return 执行结果；线程池已满时以 RejectedExecutionException 结束
+     */
+    private static <T> CompletableFuture<T> supplyOnSendExecutor(Supplier<T> supplier){
+        SendTask<T> task = new SendTask<>(supplier);
+        SECKILL_SEND_EXECUTOR.execute(task);
+        return task.future;
+    }
 
-    //在类加载时就导入脚本，降低性能损耗
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+    /**
+     * 在Redis中校验库存和一人一单并预扣库存
+     * 分片库存的秒杀券交给分片组件处理，其余执行seckill.lua脚本
+     * @param voucherId 秒杀券id
+     * @param userId 用户id
+     * @param orderId 订单id
+     * @return 0：成功；1：库存不足；2：不可重复下单；3：秒杀未开始；4：秒杀已结束
+     */
+    private Long reserveStock(Long voucherId, Long userId, Long orderId){
+        return reserveStock(voucherId, userId, orderId, false, false);
+    }
+
+    /**
+     * 在Redis中校验库存和一人一单并预扣库存
+     * @param toStream 成功后是否将订单写入Stream消息队列 stream.orders
+     * @param ledger 成功后是否登记订单发布台账（通过RabbitMQ下单时使用）
+     */
+    private Long reserveStock(Long voucherId, Long userId, Long orderId, boolean toStream, boolean ledger){
+        if (stockSharding.shardsOf(voucherId) > 1){
+            long result = stockSharding.reserve(voucherId, userId);
+            if (result == 0 && ledger){
+                //分片库存的key分散在不同slot，预扣成功后单独登记台账
+                orderLedger.record(voucherId, orderId, userId);
+            }
+            if (result == 0 && toStream){
+                //分片库存的key分散在不同slot，无法在同一个脚本中写入Stream，改为预扣成功后单独写入
+                Map<String, String> order = new HashMap<>();
+                order.put("userId", userId.toString());
+                order.put("voucherId", voucherId.toString());
+                order.put("id", orderId.toString());
+                stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, order);
+            }
+            return result;
+        }
+        return scriptRegistry.execute(RedisScriptRegistry.SECKILL,
+                Collections.emptyList(),
+                voucherId.toString(), userId.toString(), orderId.toString(), toStream ? "1" : "0", ledger ? "1" : "0");
+    }
+
+    /**
+     * 根据lua脚本的返回值生成失败结果
+     * @param voucherId 秒杀券id
+     * @param r 1：库存不足；2：不可重复下单；3：秒杀未开始；4：秒杀已结束
+     * @return
+     */
+    private Result reserveFailed(Long voucherId, int r){
+        switch (r){
+            case 1:
+                //库存不足：标记售罄并广播给其他节点
+                soldOutRegistry.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            case 3:
+                return Result.fail("秒杀未开始！");
+            case 4:
+                return Result.fail("秒杀已结束！");
+            default:
+                return Result.fail("不可重复下单");
+        }
+    }
+
+    /**
+     * 一次往返完成资格校验、预扣库存和订单id生成（执行seckill_id.lua，订单序列号在脚本中INCR）
+     * @param voucherId 秒杀券id
+     * @param userId 用户id
+     * @return 大于0：订单id；-1：库存不足；-2：不可重复下单；-3：秒杀未开始；-4：秒杀已结束
+     */
+    private long reserveStockWithId(Long voucherId, Long userId){
+        //时间戳与序列号key取同一时刻，保证序列号与时间戳属于同一天
+        LocalDateTime now = LocalDateTime.now();
+        Long count = scriptRegistry.execute(RedisScriptRegistry.SECKILL_WITH_ID,
+                Collections.singletonList(RedisIdWorker.counterKey("order", now)),
+                voucherId.toString(), userId.toString());
+        if (count == null || count < 0){
+            return count == null ? -1L : count;
+        }
+        long orderId = RedisIdWorker.compose(RedisIdWorker.timestampOf(now), count);
+        if (orderLedger.isEnabled()){
+            //订单id在脚本返回后才拼接完成，台账单独登记
+            orderLedger.record(voucherId, orderId, userId);
+        }
+        return orderId;
     }
 
     /**
@@ -88,6 +262,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @PostConstruct
     public void init(){
         rabbitTemplate.setConfirmCallback(myCallBack);
+        initMemoryQueue();
     }
 
     @Override
@@ -95,47 +270,120 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * 判断一人一单后将订单信息发到rabbitmq
      */
     public Result seckillVoucher(Long voucherId){
+        //启用Redis Stream消费者时，订单改由Stream消息队列传递
+        if (streamEnabled){
+            return seckillVoucher3(voucherId);
+        }
+        //0、本地已标记售罄：直接返回，不再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.nextId("order");
+        Long orderId;
+        int r;
 
         //1、执行lua脚本（往消息队列中传数据的任务也在这个lua脚本中完成了）
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), orderId.toString());
-        int r = result.intValue();
+        if (combinedId && idGenerator instanceof RedisIdWorker && stockSharding.shardsOf(voucherId) <= 1){
+            //订单id在脚本中一并生成，整个秒杀只需一次Redis往返
+            long idOrCode = reserveStockWithId(voucherId, userId);
+            r = idOrCode > 0 ? 0 : (int) -idOrCode;
+            orderId = idOrCode;
+        } else {
+            orderId = idGenerator.nextId("order");
+            r = reserveStock(voucherId, userId, orderId, false, orderLedger.isEnabled()).intValue();
+        }
         //2、判断返回值是否为0
         //2.1 不为0:没有购买资格
         if (r != 0){
-            //如果为1：库存不足；如果为2:不可重复下单
-            return Result.fail(result == 1 ? "库存不足" : "不可重复下单");
+            //如果为1：库存不足（同时标记售罄并广播给其他节点）；如果为2:不可重复下单；3、4：不在秒杀时间内
+            return reserveFailed(voucherId, r);
         }
 
         //3、将订单信息发送到RabbitMQ
-        //3.1 封装VoucherOrder订单对象
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        //3.2 指定消息发送 id 为 1
-        CorrelationData correlationData=new CorrelationData(orderId.toString());
-        //3.3 将对象转化为Json存入Rabbitmq
-        rabbitTemplate.convertAndSend(EXCHANGE,"msg", JSONUtil.toJsonStr(voucherOrder),correlationData);
-
-        //生产者发布确认
-
+        sendOrder(orderId, userId, voucherId);
 
         //4、返回订单id
         return Result.ok(orderId);
     }
 
-//    //异步处理线程池
-//    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-//
-//    //在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
-//    @PostConstruct      //该注解使该方法在对象初始化完成后遍开始执行
-//    private void init() {
-//        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-//    }
+    /**
+     * 秒杀券抢购（非阻塞版本）
+     * 订单id生成（INCR）、lua脚本（EVALSHA）通过Lettuce异步执行，消息发送交给独立线程池，
+     * 整个过程不占用servlet线程，单节点可同时挂起大量请求
+     * @param voucherId 秒杀券ID
+     * @return
+     */
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId){
+        //0、本地已标记售罄：直接返回，不再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)){
+            return CompletableFuture.completedFuture(Result.fail("库存不足"));
+        }
+        //发送线程池已满：在预扣库存之前拒绝
+        if (!SECKILL_SEND_PERMITS.tryAcquire()){
+            return CompletableFuture.completedFuture(Result.fail("系统繁忙，请稍后重试"));
+        }
+        //用户信息保存在ThreadLocal中，必须在请求线程中取出
+        Long userId = UserHolder.getUser().getId();
+
+        //1、异步生成订单id
+        CompletableFuture<Result> future;
+        try {
+            future = idGenerator.nextIdAsync("order")
+                    //2、异步执行lua脚本
+                    .thenCompose(orderId -> reserveStockAsync(voucherId, userId, orderId)
+                            //3、判断购买资格并发送订单消息（切换到发送线程池，不阻塞Lettuce的IO线程）
+                            .thenCompose(result -> supplyOnSendExecutor(() -> {
+                                int r = result.intValue();
+                                if (r != 0){
+                                    return reserveFailed(voucherId, r);
+                                }
+                                //启用Redis Stream时订单已在lua脚本中写入Stream，不再发送到RabbitMQ
+                                if (!streamEnabled){
+                                    sendOrder(orderId, userId, voucherId);
+                                }
+                                return Result.ok(orderId);
+                            })));
+        } catch (RuntimeException e) {
+            SECKILL_SEND_PERMITS.release();
+            throw e;
+        }
+        return future.whenComplete((result, e) -> SECKILL_SEND_PERMITS.release())
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof RejectedExecutionException){
+                        return Result.fail(cause.getMessage());
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                });
+    }
+
+    /**
+     * 异步在Redis中校验库存和一人一单并预扣库存
+     * 分片库存需要多次往返，交给发送线程池执行；启用Redis Stream时与 seckillVoucher3 一样由脚本写入Stream
+     */
+    private CompletableFuture<Long> reserveStockAsync(Long voucherId, Long userId, Long orderId){
+        boolean toStream = streamEnabled;
+        boolean ledger = !toStream && orderLedger.isEnabled();
+        if (stockSharding.shardsOf(voucherId) > 1){
+            return supplyOnSendExecutor(() -> reserveStock(voucherId, userId, orderId, toStream, ledger));
+        }
+        return reactiveStringRedisTemplate.execute(scriptRegistry.<Long>script(RedisScriptRegistry.SECKILL),
+                Collections.emptyList(),
+                Arrays.asList(voucherId.toString(), userId.toString(), orderId.toString(), toStream ? "1" : "0", ledger ? "1" : "0"))
+                .next()
+                .toFuture();
+    }
+
+    /**
+     * 将订单信息发送到RabbitMQ
+     * @param orderId 订单id
+     * @param userId 用户id
+     * @param voucherId 秒杀券id
+     */
+    private void sendOrder(Long orderId, Long userId, Long voucherId){
+        orderPublisher.publish(orderId, userId, voucherId);
+    }
 
     //由于是spring的事务是放在threadLocal中，此时的是多线程，事务会失效,需要在主线程中先获取
     private IVoucherOrderService proxy;
@@ -147,123 +395,145 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * @return
      */
     public Result seckillVoucher3(Long voucherId){
+        //0、本地已标记售罄：直接返回，不再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.nextId("order");
+        Long orderId = idGenerator.nextId("order");
 
-        //1、执行lua脚本（往消息队列中传数据的任务也在这个lua脚本中完成了）
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), orderId.toString());
+        //1、执行lua脚本（往Stream消息队列中传数据的任务也在这个lua脚本中完成了）
+        Long result = reserveStock(voucherId, userId, orderId, true, false);
         int r = result.intValue();
         //2、判断返回值是否为0
         //2.1 不为0:没有购买资格
         if (r != 0){
-            //如果为1：库存不足；如果为2:不可重复下单
-            return Result.fail(result == 1 ? "库存不足" : "不可重复下单");
+            //如果为1：库存不足（同时标记售罄并广播给其他节点）；如果为2:不可重复下单；3、4：不在秒杀时间内
+            return reserveFailed(voucherId, r);
         }
-        //在主线程创建代理对象（以便容器管理的类可以使用事务注解）
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+        //订单由 VoucherOrderStreamConsumer 中的消费者组异步写入数据库
 
         //3、返回订单id
         return Result.ok(orderId);
     }
 
     /**
-     * 对象初始化结束后便开始这个任务从消息队列中取数据
+     * 执行数据库操作（幂等，消息重复投递时不会重复扣减库存）：
+     * 1. 提交订单（订单id主键冲突说明订单已存在，直接返回；其他数据库异常照常抛出，由调用方重试）
+     * 2。 扣减库存
+     * @param voucherOrder
      */
-    private class VoucherOrderHandler implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-
-                try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.操作数据库：扣除库存、创建订单（交给容器管理以使用事务注解）
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    //处理异常消息
-                    handlePendingList();
-                }
+    @Override
+    @Transactional
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        //本地已记录入库：重复投递，直接返回
+        if (processedOrders.contains(voucherOrder.getId())){
+            return;
+        }
+        List<Long> orderIds = Collections.singletonList(voucherOrder.getId());
+        //提交订单（插入失败只回滚这一条语句，事务中还没有其他操作）
+        markStockUnsettled(voucherOrder);
+        try {
+            getBaseMapper().insert(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            log.warn("订单" + voucherOrder.getId() + "已存在，忽略重复消息");
+            processedOrders.markAfterCommit(orderIds);
+            orderLedger.removeAfterCommit(Collections.singletonList(voucherOrder));
+            return;
         }
+        //扣减库存（使用乐观锁：用库存量代替版本号）
+        decreaseStock(voucherOrder.getVoucherId(), 1, voucherOrder.getId());
+
+        //事务提交后删除订单发布台账记录，并记录订单已入库
+        orderLedger.removeAfterCommit(Collections.singletonList(voucherOrder));
+        processedOrders.markAfterCommit(orderIds);
     }
 
-        /**
-         * 当消费者取出消息后出现异常时，需重新从pending-list中处理已取出队列但未进行确认的消息
-         */
-        @Transactional(rollbackFor = Exception.class)
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有异常消息，结束循环
-                        break;
-                    }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    //手工回滚异常
-                    TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
-                    log.error("处理pendding订单异常", e);
-                    try {
-                        //避免对异常消息疯狂循环处理
-                        Thread.sleep(20);
+    /**
+     * 扣减已在Redis中预扣过的库存
+     * 开启库存扣减合并时，订单已以库存未扣减状态入库，事务提交后通知合并器按时间窗口统一扣减；否则立即扣减
+     * @param voucherId 秒杀券id
+     * @param count 扣减数量
+     * @param orderId 订单id（分桶库存的秒杀券据此选择分桶）
+     */
+    private void decreaseStock(Long voucherId, int count, long orderId){
+        if (stockAggregator.isEnabled()){
+            stockAggregator.addAfterCommit(voucherId);
+            return;
+        }
+        //批量扣减时库存不足k也要扣减剩余的库存（stock >= k 的条件不满足时不能一行都不扣）
+        int deducted = seckillVoucherService.decreaseStockAtMost(voucherId, count, orderId);
+        if (deducted < count){
+            //库存已在Redis中预扣，这里库存不足说明数据库库存与Redis不一致，只记录不回滚
+            log.error("秒杀券" + voucherId + "扣减库存" + count + "时数据库库存不足，实际扣减" + deducted);
+        }
+    }
 
-                    } catch (Exception a) {
-                        a.printStackTrace();
-                    }
-                }
-            }
+    /**
+     * 开启库存扣减合并时，订单以库存未扣减状态入库，待扣减的数量与订单在同一个事务中写入，进程崩溃后由合并器继续扣减
+     */
+    private void markStockUnsettled(VoucherOrder voucherOrder){
+        if (stockAggregator.isEnabled()){
+            voucherOrder.setStockSettled(0);
         }
     }
+
     /**
-     * 执行数据库操作：
-     * 1. 扣减库存
-     * 2。 提交订单
-     * @param voucherOrder
+     * 批量执行数据库操作（在同一个事务中完成，供消息队列批量消费使用）：
+     * 1. 按秒杀券id汇总扣减数量，每个秒杀券只扣减一次库存 stock = stock - k
+     * 2. 多行插入提交订单
+     * @param voucherOrders 一批订单
      */
     @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        long voucherId = voucherOrder.getVoucherId();
-        //扣减库存（使用乐观锁：用库存量代替版本号）
-        seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId)
-                .gt("stock",0)
-                .update();
+    public void createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        //0、过滤重复投递的订单：先查本地过滤器，再查数据库
+        List<VoucherOrder> received = voucherOrders;
+        voucherOrders = new ArrayList<>(received.size());
+        List<Long> unknownIds = new ArrayList<>(received.size());
+        for (VoucherOrder voucherOrder : received){
+            if (!processedOrders.contains(voucherOrder.getId())){
+                voucherOrders.add(voucherOrder);
+                unknownIds.add(voucherOrder.getId());
+            }
+        }
+        if (voucherOrders.isEmpty()){
+            return;
+        }
+        Set<Long> existingIds = new HashSet<>(getBaseMapper().selectExistingIds(unknownIds));
+        if (!existingIds.isEmpty()){
+            log.warn("忽略" + existingIds.size() + "个已存在订单的重复消息");
+            processedOrders.markAfterCommit(new ArrayList<>(existingIds));
+            voucherOrders.removeIf(voucherOrder -> existingIds.contains(voucherOrder.getId()));
+            if (voucherOrders.isEmpty()){
+                return;
+            }
+        }
 
-        //提交订单
-        save(voucherOrder);
+        //1、按秒杀券id汇总扣减数量（TreeMap保证多个批次并发时按相同顺序加行锁，避免死锁）
+        Map<Long, Integer> stockDeltas = new TreeMap<>();
+        //每个秒杀券取本批次第一个订单id，用于选择库存分桶
+        Map<Long, Long> bucketHints = new HashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders){
+            stockDeltas.merge(voucherOrder.getVoucherId(), 1, Integer::sum);
+            bucketHints.putIfAbsent(voucherOrder.getVoucherId(), voucherOrder.getId());
+            markStockUnsettled(voucherOrder);
+        }
+
+        //2、扣减库存（使用乐观锁：用库存量代替版本号）
+        for (Map.Entry<Long, Integer> entry : stockDeltas.entrySet()){
+            decreaseStock(entry.getKey(), entry.getValue(), bucketHints.get(entry.getKey()));
+        }
+
+        //3、多行插入提交订单（其他消费者并发插入了同一订单时抛出 DuplicateKeyException，回滚整批，重新投递后由第0步过滤）
+        getBaseMapper().insertBatch(voucherOrders);
+        //4、事务提交后删除订单发布台账记录，并记录订单已入库
+        orderLedger.removeAfterCommit(voucherOrders);
+        List<Long> orderIds = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders){
+            orderIds.add(voucherOrder.getId());
+        }
+        processedOrders.markAfterCommit(orderIds);
     }
 
         /**
@@ -273,26 +543,42 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * @return
      */
     public Result seckillVoucher2(Long voucherId){
+        //0、本地已标记售罄：直接返回，不再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
 
         //1、执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(), voucherId.toString(), userId.toString());
+        Long result = reserveStock(voucherId, userId, orderId);
         int r = result.intValue();
         //2、判断返回值是否为0
         //2.1 不为0:没有购买资格
         if (r != 0){
-            //如果为1：库存不足；如果为2:不可重复下单
-            return Result.fail(result == 1 ? "库存不足" : "不可重复下单");
+            //如果为1：库存不足（同时标记售罄并广播给其他节点）；如果为2:不可重复下单；3、4：不在秒杀时间内
+            return reserveFailed(voucherId, r);
         }
 
-        //2.2 为0：保存到阻塞队列中
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
+        //2.2 为0：保存到内存队列中
         proxy = (IVoucherOrderService)AopContext.currentProxy();
-        orderTasks.add(voucherOrder);
+        if (orderJournal != null){
+            //订单日志：先追加到内存映射文件再返回，进程崩溃后可恢复
+            if (!orderJournal.append(orderId, userId, voucherId)){
+                throw new IllegalStateException("订单日志已满");
+            }
+        } else if (orderRingBuffer != null){
+            //环形队列：直接写入预分配的槽位
+            if (!orderRingBuffer.tryPublish(orderId, userId, voucherId)){
+                throw new IllegalStateException("订单队列已满");
+            }
+        } else {
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(orderId);
+            voucherOrder.setUserId(userId);
+            voucherOrder.setVoucherId(voucherId);
+            orderTasks.add(voucherOrder);
+        }
 
         //3、返回订单id
         return Result.ok(orderId);
@@ -300,8 +586,79 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
 
-    //JDK实现的阻塞消息队列
-    private BlockingQueue<VoucherOrder> orderTasks =new ArrayBlockingQueue<>(1024 * 1024);
+    //内存队列类型：blocking（JDK阻塞队列）/ ring（无锁环形队列）/ journal（内存映射文件订单日志）
+    @Value("${lyx.order.memory-queue.type:blocking}")
+    private String memoryQueueType;
+
+    //是否启动内存队列的消费线程
+    @Value("${lyx.order.memory-queue.enabled:false}")
+    private boolean memoryQueueEnabled;
+
+    //环形队列容量（2的幂）
+    @Value("${lyx.order.memory-queue.ring-size:1048576}")
+    private int ringSize;
+
+    //环形队列消费者等待策略：blocking / yielding / busy-spin
+    @Value("${lyx.order.memory-queue.wait-strategy:blocking}")
+    private String waitStrategy;
+
+    //消费者每批最多取出的订单数
+    @Value("${lyx.order.memory-queue.batch-size:256}")
+    private int memoryQueueBatchSize;
+
+    //订单日志文件路径
+    @Value("${lyx.order.memory-queue.journal-path:data/order.journal}")
+    private String journalPath;
+
+    //每次提交读游标后是否强制刷盘
+    @Value("${lyx.order.memory-queue.journal-force:false}")
+    private boolean journalForce;
+
+    //JDK实现的阻塞消息队列（blocking模式）
+    private BlockingQueue<VoucherOrder> orderTasks;
+
+    //无锁环形队列（ring模式）
+    private OrderRingBuffer orderRingBuffer;
+
+    //内存映射文件订单日志（journal模式）
+    private OrderJournal orderJournal;
+
+    //内存队列消费线程中使用的代理对象（启动恢复时还没有请求线程设置proxy）
+    @Lazy
+    @Resource
+    private IVoucherOrderService self;
+
+    //订单日志重放失败时的退避时间（毫秒）
+    private static final long REPLAY_BACKOFF_MIN = 100;
+    private static final long REPLAY_BACKOFF_MAX = 5000;
+
+    //内存队列消费线程
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 按配置创建内存队列，并启动消费线程
+     */
+    private void initMemoryQueue(){
+        Runnable handler;
+        if ("journal".equals(memoryQueueType)){
+            try {
+                orderJournal = new OrderJournal(journalPath, ringSize, OrderRingBuffer.waitStrategy(waitStrategy));
+            } catch (IOException e) {
+                throw new IllegalStateException("打开订单日志失败", e);
+            }
+            //启动时同步恢复：必须在接受新的追加之前确定写序号，否则新订单会覆盖尚未入库的记录
+            handler = new VoucherOrderHandler3(orderJournal.recover());
+        } else if ("ring".equals(memoryQueueType)){
+            orderRingBuffer = new OrderRingBuffer(ringSize, OrderRingBuffer.waitStrategy(waitStrategy));
+            handler = new VoucherOrderHandler2();
+        } else {
+            orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+            handler = new VoucherOrderHandler1();
+        }
+        if (memoryQueueEnabled){
+            SECKILL_ORDER_EXECUTOR.submit(handler);
+        }
+    }
 
 
     // 用于线程池处理的任务
@@ -321,6 +678,126 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             }
         }
     }
+    // 环形队列的消费任务：批量取出订单，在一个事务中批量入库
+    private class VoucherOrderHandler2 implements Runnable {
+        @Override
+        public void run() {
+            List<VoucherOrder> batch = new ArrayList<>(memoryQueueBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // 1.批量获取队列中的订单信息
+                    batch.clear();
+                    orderRingBuffer.drain(memoryQueueBatchSize, batch);
+                    // 2.批量创建订单
+                    proxy.createVoucherOrderBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.error("批量处理订单异常，改为逐条处理", e);
+                    for (VoucherOrder voucherOrder : batch){
+                        try {
+                            //幂等入库：批量事务中已有订单被其他路径写入时不会重复扣减库存
+                            proxy.createVoucherOrder(voucherOrder);
+                        } catch (Exception ex) {
+                            log.error("处理订单" + voucherOrder.getId() + "异常", ex);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // 订单日志的消费任务：启动时先重放上次未入库的订单，之后批量读取、入库并持久化读游标
+    private class VoucherOrderHandler3 implements Runnable {
+        //启动时恢复出的尚未入库的订单
+        private final List<VoucherOrder> pending;
+
+        private VoucherOrderHandler3(List<VoucherOrder> pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void run() {
+            proxy = self;
+            // 1.重放上次进程退出前尚未入库的订单
+            if (!pending.isEmpty()){
+                log.warn("订单日志中有" + pending.size() + "条订单尚未入库，开始重放");
+                if (!replayAll(pending)){
+                    return;
+                }
+            }
+
+            List<VoucherOrder> batch = new ArrayList<>(memoryQueueBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // 2.批量读取日志中的订单信息
+                    batch.clear();
+                    orderJournal.drain(memoryQueueBatchSize, batch);
+                    // 3.批量创建订单
+                    try {
+                        proxy.createVoucherOrderBatch(batch);
+                    } catch (Exception e) {
+                        log.error("批量处理订单异常，改为逐条处理", e);
+                        if (!replayAll(batch)){
+                            return;
+                        }
+                        continue;
+                    }
+                    // 4.入库完成后持久化读游标
+                    commit(batch.size());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * 逐条入库并持久化读游标；被中断时只提交已入库的订单
+         * @return false：被中断
+         */
+        private boolean replayAll(List<VoucherOrder> voucherOrders){
+            for (int i = 0; i < voucherOrders.size(); i++){
+                if (!replayVoucherOrder(voucherOrders.get(i))){
+                    commit(i);
+                    return false;
+                }
+            }
+            commit(voucherOrders.size());
+            return true;
+        }
+
+        /**
+         * 逐条入库（订单已存在时 createVoucherOrder 直接返回，可以重复执行）；
+         * 异常（如数据库不可用）时退避后重试同一条订单，读游标不会越过未入库的订单
+         * @return false：重试等待时被中断
+         */
+        private boolean replayVoucherOrder(VoucherOrder voucherOrder){
+            long backoff = REPLAY_BACKOFF_MIN;
+            while (true){
+                try {
+                    proxy.createVoucherOrder(voucherOrder);
+                    return true;
+                } catch (Exception e) {
+                    log.error("处理订单" + voucherOrder.getId() + "异常，" + backoff + "毫秒后重试", e);
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                backoff = Math.min(backoff * 2, REPLAY_BACKOFF_MAX);
+            }
+        }
+
+        private void commit(int persisted){
+            orderJournal.commit(persisted);
+            if (journalForce){
+                orderJournal.force();
+            }
+        }
+    }
+
     //由于在redis中已经完成了对库存和一人一单的判断，这里不需要再加锁，直接保存订单信息即可（但事务还是需要）
     @Transactional
     @Override
@@ -328,13 +805,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         Long userId = voucherOrder.getUserId();
         Long voucherId = voucherOrder.getVoucherId();
         //保存订单
+        markStockUnsettled(voucherOrder);
         save(voucherOrder);
         //扣减库存
-        seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id",voucherId)
-                .gt("stock",0)
-                .update();
+        decreaseStock(voucherId, 1, voucherOrder.getId());
     }
 
 
@@ -381,7 +855,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         /*使用自定义Redis实现的分布式锁解决分布式并发问题
         //1、创建锁对象
-        SimpleRedisLock simpleRedisLock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
+        SimpleRedisLock simpleRedisLock = new SimpleRedisLock("order:" + userId, stringRedisTemplate, scriptRegistry);
 
         //2、获取锁对象
         boolean success = simpleRedisLock.tryLock(500);
@@ -439,7 +913,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
         //订单id
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
         voucherOrder.setId(orderId);
         //秒杀券id
         voucherOrder.setVoucherId(voucherId);
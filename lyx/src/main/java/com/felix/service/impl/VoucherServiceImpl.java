@@ -7,6 +7,10 @@ import com.felix.mapper.VoucherMapper;
 import com.felix.model.entity.SeckillVoucher;
 import com.felix.service.ISeckillVoucherService;
 import com.felix.service.IVoucherService;
+import com.felix.utils.SeckillAdmissionControl;
+import com.felix.utils.SeckillMetaStore;
+import com.felix.utils.SeckillSoldOutRegistry;
+import com.felix.utils.SeckillStockSharding;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,6 +35,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    @Resource
+    private SeckillAdmissionControl admissionControl;
+
+    @Resource
+    private SeckillMetaStore seckillMetaStore;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -44,15 +60,59 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
-        // 保存秒杀信息
+        // 保存秒杀信息（分片数和去重方式同时保存到数据库，Redis数据丢失后据此重建）
+        int shards = stockSharding.resolveShards(voucher.getStockShards());
+        String dedup = seckillMetaStore.resolveDedup(voucher.getDedup(), shards);
         SeckillVoucher seckillVoucher = new SeckillVoucher();
         seckillVoucher.setVoucherId(voucher.getId());
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setStockShards(shards);
+        seckillVoucher.setDedup(dedup);
         seckillVoucherService.save(seckillVoucher);
+        //热点秒杀券可将数据库库存拆分到多行分桶，提高订单入库时的并发扣减能力
+        int buckets = seckillVoucherService.resolveBuckets(voucher.getStockBuckets());
+        if (buckets > 1){
+            seckillVoucherService.createBuckets(voucher.getId(), voucher.getStock(), buckets);
+        }
+
+        //将秒杀券的库存量保存到redis中（超热点秒杀券可将库存拆分到多个分片key）
+        if (shards > 1){
+            stockSharding.initShards(voucher.getId(), voucher.getStock(), shards);
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+            stockSharding.saveShards(voucher.getId(), shards);
+        }
+        //秒杀时间、去重方式与库存一起保存到redis中，由lua脚本校验是否在秒杀时间内并选择一人一单的去重结构
+        seckillMetaStore.save(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime(), dedup);
+        //库存已变更：清除各节点的售罄标记
+        soldOutRegistry.reset(voucher.getId());
+        admissionControl.reset(voucher.getId());
+    }
 
-        //将秒杀券的库存量保存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+    @Override
+    @Transactional
+    public void restockSeckillVoucher(Long voucherId, Integer count) {
+        //1、增加数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success){
+            throw new RuntimeException("秒杀券不存在！");
+        }
+        if (seckillVoucherService.bucketsOf(voucherId) > 1){
+            seckillVoucherService.increaseBucketStock(voucherId, count);
+        }
+        //2、增加redis中的库存
+        if (stockSharding.shardsOf(voucherId) > 1){
+            stockSharding.addStock(voucherId, count);
+        } else {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+        }
+        //3、库存已变更：清除各节点的售罄标记
+        soldOutRegistry.reset(voucherId);
+        admissionControl.reset(voucherId);
     }
 }
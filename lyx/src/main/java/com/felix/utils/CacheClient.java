@@ -9,16 +9,28 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.felix.model.constants.RedisConstants.*;
 
 /**
  * 自定义封装Redis工具类
+ *
+ * 开启本地缓存（lyx.cache.local.enabled）后，所有查询方法先查本地一级缓存 LocalCache，未命中再查Redis，
+ * 热点数据的读取不再有网络IO；删除缓存请使用 delete()，同时通知所有节点删除本地缓存
  */
 @Slf4j
 @Component
@@ -26,13 +38,30 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    //本地一级缓存
+    private final LocalCache localCache;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
     }
 
     //自定义线程池
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
+    //互斥锁获取失败后的退避时间（毫秒）：从最小值开始翻倍，不超过最大值
+    private static final long MUTEX_BACKOFF_MIN = 20;
+    private static final long MUTEX_BACKOFF_MAX = 500;
+    //概率提前刷新的系数，大于1时更倾向于提前刷新
+    private static final double XFETCH_BETA = 1.0;
+    //获取互斥锁的最多尝试次数
+    private static final int MUTEX_MAX_ATTEMPTS = 10;
+    //等待本节点其他线程重建缓存的最长时间（毫秒）
+    private static final long MUTEX_WAIT_TIMEOUT = 10000;
+
+    //key -> 本节点正在进行的缓存重建
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
     /** 方法1：将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
      *
      * @param key Redis key
@@ -47,6 +76,8 @@ public class CacheClient {
         //写入redis
         //为避免缓存雪崩，给不同key的TTL添加随机值
         stringRedisTemplate.opsForValue().set(key,json,time + RandomUtil.randomLong(10),timeUnit);
+        //本节点的本地缓存可能是旧数据
+        localCache.invalidate(key);
     }
 
 
@@ -64,6 +95,34 @@ public class CacheClient {
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(time));
 
         stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        localCache.invalidate(key);
+    }
+
+    /** 方法2.1：在逻辑过期数据中同时记录重建缓存的耗时，用于概率提前刷新（queryWithEarlyRefresh）
+     *
+     * @param key Redis key
+     * @param objValue Redis value
+     * @param delta 重建缓存耗时（毫秒）
+     * @param time 超时时间
+     * @param timeUnit 时间类型
+     */
+    public void setWithEarlyRefresh(String key,Object objValue,long delta,Long time,TimeUnit timeUnit){
+        RedisData redisData = new RedisData();
+        redisData.setData(objValue);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(timeUnit.toMillis(time))));
+
+        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        localCache.invalidate(key);
+    }
+
+    /** 删除缓存：删除Redis中的数据，并通知所有节点删除本地缓存
+     *
+     * @param key Redis key
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        localCache.invalidateAll(key);
     }
 
     /** 方法3：根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
@@ -81,17 +140,25 @@ public class CacheClient {
     public  <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type,
                                           Function<ID,R> dbFallback,Long time,TimeUnit timeUnit){
 
-        //1、从Redis中查询缓存
+        //0、从本地缓存中查询
         String key = keyPrefix + id;
+        Object local = localCache.get(key);
+        if (local != null){
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+
+        //1、从Redis中查询缓存
         String json = stringRedisTemplate.opsForValue().get(key);
 
         //2、redis中用户存在：直接返回数据，空串也算空
         if (StrUtil.isNotBlank(json)){
             R r = JSONUtil.toBean(json, type);
+            localCache.put(keyPrefix, key, r);
             return r;
         }
         //如果得到的数据是为解决缓存穿透的空缓存，返回错误信息(null)
         if ("".equals(json)){
+            localCache.put(keyPrefix, key, null);
             return null;
         }
 
@@ -101,12 +168,14 @@ public class CacheClient {
         if (r == null){
             //为解决缓存穿透，将空缓存存入redis，并设置超时时间以减少出现数据不一致的情况
             stringRedisTemplate.opsForValue().set(key,"", time,timeUnit);
+            localCache.put(keyPrefix, key, null);
             return null;
         }
 
         //5、数据存在：将查询到的数据存入redis，并设置超时时间
         //为避免缓存雪崩，给不同key的TTL添加随机值
         this.set(key,r,time,timeUnit);
+        localCache.put(keyPrefix, key, r);
 
         return r;
     }
@@ -131,6 +200,12 @@ public class CacheClient {
     public <R,ID> R queryWithLogicalExpire(String keyPrefix,ID id,Class<R> type,String lockPrefix,
                                            Function<ID,R> dbFallback,Long time,TimeUnit timeUnit){
         String key = keyPrefix + id;
+        //0、从本地缓存中查询（本地缓存的有效期不超过逻辑过期时间）
+        Object local = localCache.get(key);
+        if (local != null){
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+
         //1、从缓存中获取热点店铺信息
         String json = stringRedisTemplate.opsForValue().get(key);
 
@@ -147,7 +222,9 @@ public class CacheClient {
 
 
         //3.1.1 逻辑时间未过期，直接返回
-        if (expireTime.isAfter(LocalDateTime.now())){
+        LocalDateTime now = LocalDateTime.now();
+        if (expireTime.isAfter(now)){
+            localCache.put(keyPrefix, key, r, Duration.between(now, expireTime).toMillis());
             return r;
         }
 
@@ -198,66 +275,320 @@ public class CacheClient {
     public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, String lockPrefix,
                                    Function<ID,R> dbFallback,Long time,TimeUnit timeUnit){
 
-        //1、从Redis中查询缓存
+        //0、从本地缓存中查询
         String key = keyPrefix + id;
+        Object local = localCache.get(key);
+        if (local != null){
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+
+        //1、从Redis中查询缓存
         String json = stringRedisTemplate.opsForValue().get(key);
 
         //2、redis中用户存在：直接返回数据，空串也算空
         if (StrUtil.isNotBlank(json)){
             R r = JSONUtil.toBean(json, type);
+            localCache.put(keyPrefix, key, r);
             return r;
         }
         //如果得到的数据是为解决缓存穿透的空缓存，返回错误信息(null)
         if ("".equals(json)){
+            localCache.put(keyPrefix, key, null);
             return null;
         }
 
-        //3、不存在：从数据库中查找
-        //3.1 获取对应的互斥锁
-        String lockKey = lockPrefix + id;
-        R r = null;
+        //3、不存在：本节点同一个key只有一个线程去重建缓存，其他线程等待它的结果（single-flight）
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightLoads.putIfAbsent(key, flight);
+        if (existing != null){
+            Object value = awaitFlight(existing);
+            return value == LocalCache.NULL_VALUE ? null : type.cast(value);
+        }
         try {
-            boolean flag = tryLock(lockKey);
+            R r = loadWithLockRetry(keyPrefix, key, id, type, lockPrefix, dbFallback, time, timeUnit);
+            flight.complete(r == null ? LocalCache.NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, flight);
+        }
+    }
 
-            //3.2 失败：休眠然后重新查找（从缓存开始重新查找）
-            if (!flag){
-                return queryWithMutex(keyPrefix,id,type,lockPrefix,dbFallback,time,timeUnit);
+    /**
+     * 获取互斥锁后从数据库重建缓存
+     * 获取锁失败（其他节点正在重建）时按有界的退避时间等待，每次等待后重新查询缓存，不再递归调用；
+     * 等待超过上限仍未获取到锁时直接查询数据库返回（不写缓存）
+     */
+    private <R,ID> R loadWithLockRetry(String keyPrefix, String key, ID id, Class<R> type, String lockPrefix,
+                                       Function<ID,R> dbFallback, Long time, TimeUnit timeUnit){
+        String lockKey = lockPrefix + id;
+        long backoff = MUTEX_BACKOFF_MIN;
+        for (int attempt = 0; attempt < MUTEX_MAX_ATTEMPTS; attempt++){
+            //3.1 获取对应的互斥锁
+            if (tryLock(lockKey)){
+                try {
+                    return rebuildWithLock(keyPrefix, key, id, type, dbFallback, time, timeUnit);
+                } finally {
+                    //4.4 归还互斥锁
+                    unLock(lockKey);
+                }
             }
 
-            //3.3 成功：再次查询缓存（DoubleCheck），以免这次获取锁的同时其他进程正好返回数据到缓存
-            json = stringRedisTemplate.opsForValue().get(key);
-
-            //3.4 缓存存在：直接返回缓存数据
-            if (StrUtil.isNotBlank(json)) {
-                r = JSONUtil.toBean(json,type);
+            //3.2 失败：退避后重新查询缓存（退避时间翻倍并加随机值，避免多个节点同时重试）
+            try {
+                Thread.sleep(backoff + RandomUtil.randomLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            backoff = Math.min(backoff * 2, MUTEX_BACKOFF_MAX);
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(json)){
+                R r = JSONUtil.toBean(json, type);
+                localCache.put(keyPrefix, key, r);
                 return r;
             }
-            //如果得到的数据是为解决缓存穿透的空缓存，返回错误信息(null)
             if ("".equals(json)){
                 return null;
             }
+        }
+        log.warn("等待缓存{}重建超时，直接查询数据库", key);
+        return dbFallback.apply(id);
+    }
 
-            //4 缓存不存在：从数据库中查找数据
-            //模拟数据库查询延迟
-            Thread.sleep(200);
-            r = dbFallback.apply(id);
-            //4.1 数据不存在：返回错误（null）
-            if (r == null){
-                //4.2 为解决缓存穿透，将空缓存存入redis，并设置超时时间以减少出现避免数据不一致
-                stringRedisTemplate.opsForValue().set(key,"", CACHE_NULL_TTL,TimeUnit.MINUTES);
-                return null;
+    /**
+     * 已持有互斥锁：再次查询缓存（DoubleCheck），不存在时查询数据库并写入缓存
+     */
+    private <R,ID> R rebuildWithLock(String keyPrefix, String key, ID id, Class<R> type,
+                                     Function<ID,R> dbFallback, Long time, TimeUnit timeUnit){
+        //3.3 成功：再次查询缓存（DoubleCheck），以免这次获取锁的同时其他进程正好返回数据到缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+
+        //3.4 缓存存在：直接返回缓存数据
+        if (StrUtil.isNotBlank(json)) {
+            R r = JSONUtil.toBean(json,type);
+            localCache.put(keyPrefix, key, r);
+            return r;
+        }
+        //如果得到的数据是为解决缓存穿透的空缓存，返回错误信息(null)
+        if ("".equals(json)){
+            return null;
+        }
+
+        //4 缓存不存在：从数据库中查找数据
+        R r = dbFallback.apply(id);
+        //4.1 数据不存在：返回错误（null）
+        if (r == null){
+            //4.2 为解决缓存穿透，将空缓存存入redis，并设置超时时间以减少出现避免数据不一致
+            stringRedisTemplate.opsForValue().set(key,"", CACHE_NULL_TTL,TimeUnit.MINUTES);
+            localCache.put(keyPrefix, key, null);
+            return null;
+        }
+
+        //4.3 数据存在：将查询到的数据存入redis，并设置超时时间
+        //为避免缓存雪崩，给不同key的TTL添加随机值
+        this.set(key,r,time,timeUnit);
+        localCache.put(keyPrefix, key, r);
+        return r;
+    }
+
+    /**
+     * 本节点同一个key只有一个线程执行loader，其他线程等待它的结果（single-flight，queryWithEarlyRefresh 使用）
+     */
+    private <R> R loadOnce(String key, Class<R> type, Supplier<R> loader){
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightLoads.putIfAbsent(key, flight);
+        if (existing != null){
+            Object value = awaitFlight(existing);
+            return value == LocalCache.NULL_VALUE ? null : type.cast(value);
+        }
+        try {
+            R r = loader.get();
+            flight.complete(r == null ? LocalCache.NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, flight);
+        }
+    }
+
+    /**
+     * 获取互斥锁后重建逻辑过期缓存（queryWithEarlyRefresh 缓存不存在时使用），等待方式与 loadWithLockRetry 相同
+     * @param reader 查询缓存：null 未命中，NULL_VALUE 缓存的空值
+     * @param rebuilder 查询数据库并写入缓存
+     * @param direct 直接查询数据库
+     */
+    private <R> R loadWithMutex(String key, String lockKey, Supplier<Object> reader,
+                                Supplier<R> rebuilder, Supplier<R> direct){
+        long backoff = MUTEX_BACKOFF_MIN;
+        for (int attempt = 0; attempt < MUTEX_MAX_ATTEMPTS; attempt++){
+            //3.1 获取对应的互斥锁
+            if (tryLock(lockKey)){
+                try {
+                    //3.3 成功：再次查询缓存（DoubleCheck），以免这次获取锁的同时其他进程正好返回数据到缓存
+                    Object cached = reader.get();
+                    if (cached != null){
+                        return cached == LocalCache.NULL_VALUE ? null : cast(cached);
+                    }
+                    //4 缓存不存在：从数据库中查找数据并写入缓存
+                    return rebuilder.get();
+                } finally {
+                    //4.4 归还互斥锁
+                    unLock(lockKey);
+                }
+            }
+
+            //3.2 失败：退避后重新查询缓存（退避时间翻倍并加随机值，避免多个节点同时重试）
+            try {
+                Thread.sleep(backoff + RandomUtil.randomLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
+            backoff = Math.min(backoff * 2, MUTEX_BACKOFF_MAX);
+            Object cached = reader.get();
+            if (cached != null){
+                return cached == LocalCache.NULL_VALUE ? null : cast(cached);
+            }
+        }
+        log.warn("等待缓存{}重建超时，直接查询数据库", key);
+        return direct.get();
+    }
 
-            //4.3 数据存在：将查询到的数据存入redis，并设置超时时间
-            //为避免缓存雪崩，给不同key的TTL添加随机值
-            this.set(key,r,time,timeUnit);
+    @SuppressWarnings("unchecked")
+    private static <R> R cast(Object value){
+        return (R) value;
+    }
 
-        } catch (Exception e) {
+    /**
+     * 等待本节点其他线程的重建结果
+     */
+    private static Object awaitFlight(CompletableFuture<Object> flight){
+        try {
+            return flight.get(MUTEX_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            //4.4 归还互斥锁
-            unLock(lockKey);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时", e);
+        }
+    }
+
+    /** 方法6：根据指定的key查询缓存，并反序列化为指定类型，利用概率提前刷新（XFetch）解决缓存击穿问题
+     * 特点：
+     *  1、缓存中同时保存逻辑过期时间和上次重建缓存的耗时delta
+     *  2、每次读取时计算 当前时间 - delta * beta * ln(random) ，超过逻辑过期时间就提前在后台重建缓存；
+     *     离过期越近、重建越慢，提前刷新的概率越高，热点key的刷新时间被随机分散，过期时刻不会同时争抢互斥锁
+     *  3、缓存不存在时与 queryWithMutex 相同：本节点single-flight、节点间互斥锁，只有一个请求查询数据库；
+     *     数据库中不存在的数据缓存空值，防止缓存穿透
+     *
+     * @param keyPrefix Redis key的前缀
+     * @param id Redis key的具体id
+     * @param type 指定返回类的类型
+     * @param lockPrefix 互斥锁在Redis中key的前缀（防止多个节点同时提前刷新）
+     * @param dbFallback 自定义sql语句
+     * @param time Redis数据超时时间
+     * @param timeUnit 超时时间类型
+     * @param <R> 返回类
+     * @param <ID> 查找类型
+     * @return 返回所查找的类
+     */
+    public <R,ID> R queryWithEarlyRefresh(String keyPrefix, ID id, Class<R> type, String lockPrefix,
+                                          Function<ID,R> dbFallback, Long time, TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        //0、从本地缓存中查询（本地缓存的有效期不超过逻辑过期时间）
+        Object local = localCache.get(key);
+        if (local != null){
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+
+        //1、从缓存中查询
+        String json = stringRedisTemplate.opsForValue().get(key);
+
+        //2、缓存的空值：直接返回null
+        if ("".equals(json)){
+            localCache.put(keyPrefix, key, null);
+            return null;
+        }
+        //2.1 缓存不存在：single-flight + 互斥锁，只有一个请求重建
+        if (StrUtil.isBlank(json)){
+            String lockKey = lockPrefix + id;
+            return loadOnce(key, type, () -> loadWithMutex(key, lockKey,
+                    () -> readLogicalCache(keyPrefix, key, type),
+                    () -> rebuildWithDelta(keyPrefix, key, id, dbFallback, time, timeUnit),
+                    () -> dbFallback.apply(id)));
+        }
+
+        //3、缓存存在：按概率判断是否提前刷新
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        long expireAt = redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        long now = LocalDateTime.now().toInstant(ZoneOffset.UTC).toEpochMilli();
+        //-ln(random) 服从指数分布，均值为1
+        double gap = delta * XFETCH_BETA * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        if (now + gap < expireAt){
+            //3.1 不需要刷新：直接返回
+            localCache.put(keyPrefix, key, r, expireAt - now);
+            return r;
+        }
+
+        //3.2 需要刷新：获取互斥锁成功的节点在后台重建，其他请求继续返回当前数据
+        String lockKey = lockPrefix + id;
+        if (tryLock(lockKey)){
+            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    rebuildWithDelta(keyPrefix, key, id, dbFallback, time, timeUnit);
+                } catch (Exception e) {
+                    log.error("提前刷新缓存{}失败", key, e);
+                } finally {
+                    unLock(lockKey);
+                }
+            });
+        }
+        return r;
+    }
+
+    /**
+     * 查询Redis中的逻辑过期缓存（setWithEarlyRefresh() 写入的数据），命中时写入本地缓存
+     * @return null：未命中；NULL_VALUE：缓存的空值
+     */
+    private <R> Object readLogicalCache(String keyPrefix, String key, Class<R> type){
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if ("".equals(json)){
+            localCache.put(keyPrefix, key, null);
+            return LocalCache.NULL_VALUE;
+        }
+        if (StrUtil.isBlank(json)){
+            return null;
+        }
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        long remaining = redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli()
+                - LocalDateTime.now().toInstant(ZoneOffset.UTC).toEpochMilli();
+        localCache.put(keyPrefix, key, r, remaining);
+        return r;
+    }
+
+    /**
+     * 查询数据库并记录耗时，写入缓存；数据不存在时缓存空值
+     */
+    private <R,ID> R rebuildWithDelta(String keyPrefix, String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit timeUnit){
+        long start = System.nanoTime();
+        R r = dbFallback.apply(id);
+        long delta = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (r == null){
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCache.put(keyPrefix, key, null);
+            return null;
         }
+        this.setWithEarlyRefresh(key, r, delta, time, timeUnit);
         return r;
     }
 
@@ -0,0 +1,35 @@
+package com.felix.utils;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 全局唯一Id生成器
+ *
+ * 实现：RedisIdWorker（Redis序列号，默认）、SnowflakeIdWorker（本地生成，lyx.id.type=snowflake）
+ */
+public interface IdGenerator {
+
+    /**
+     * 获取全局唯一Id
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一Id
+     */
+    long nextId(String keyPrefix);
+
+    /**
+     * 异步获取全局唯一Id
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一Id
+     */
+    default CompletableFuture<Long> nextIdAsync(String keyPrefix){
+        return CompletableFuture.completedFuture(nextId(keyPrefix));
+    }
+
+    /**
+     * 某时刻生成的最小Id（Id高位是时间戳，用于按时间范围统计订单）
+     * @param time 时间
+     * @return 该时刻之前生成的Id都小于它
+     */
+    long minIdAt(LocalDateTime time);
+}
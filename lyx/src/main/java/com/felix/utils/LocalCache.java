@@ -0,0 +1,287 @@
+package com.felix.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.felix.model.constants.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 本地一级缓存（CacheClient 的 L1，Redis 为 L2）
+ *
+ * 容量有界，淘汰策略参考 W-TinyLFU：
+ *  1、新写入的key先进入窗口区（容量的1%），窗口区满后最早的key成为候选
+ *  2、主区满时，候选与主区最早的key比较访问频率（Count-Min Sketch 近似统计，定期减半），频率高者留下
+ * 偶发访问的key无法挤掉热点key。每个key带过期时间（按前缀配置），
+ * 删除缓存时通过Redis发布订阅通知所有节点删除本地缓存
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    //缓存空值（解决缓存穿透）的标记
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //是否启用本地缓存
+    @Value("${lyx.cache.local.enabled:false}")
+    private boolean enabled;
+
+    //最大缓存数量
+    @Value("${lyx.cache.local.maximum-size:10000}")
+    private int maximumSize;
+
+    //默认过期时间（毫秒）
+    @Value("${lyx.cache.local.ttl:5000}")
+    private long defaultTtl;
+
+    //key前缀 -> 过期时间（毫秒）
+    @Value("#{${lyx.cache.local.ttls:{:}}}")
+    private Map<String, Long> prefixTtls;
+
+    private static final class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    //窗口区和主区中的key（按写入顺序，加锁维护；读取命中不加锁）。key删除时同时从所在区域移除，区域大小即实际缓存数量
+    private final LinkedHashSet<String> window = new LinkedHashSet<>();
+    private final LinkedHashSet<String> main = new LinkedHashSet<>();
+    private int windowSize;
+    private int mainSize;
+
+    private FrequencySketch sketch;
+
+    @PostConstruct
+    public void init(){
+        if (!enabled){
+            return;
+        }
+        windowSize = Math.max(1, maximumSize / 100);
+        mainSize = Math.max(1, maximumSize - windowSize);
+        sketch = new FrequencySketch(maximumSize);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 缓存key
+     * @return null：未命中；NULL_VALUE：缓存的空值
+     */
+    public Object get(String key){
+        if (!enabled){
+            return null;
+        }
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if (entry == null){
+            return null;
+        }
+        if (entry.expireAt <= System.currentTimeMillis()){
+            synchronized (this){
+                if (entries.remove(key, entry)){
+                    window.remove(key);
+                    main.remove(key);
+                }
+            }
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * 写入本地缓存，过期时间按key前缀取配置
+     * @param keyPrefix key前缀
+     * @param key 缓存key
+     * @param value 缓存值，null表示缓存空值
+     */
+    public void put(String keyPrefix, String key, Object value){
+        put(keyPrefix, key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * 写入本地缓存
+     * @param maxTtl 最长过期时间（毫秒），如逻辑过期数据的剩余有效期
+     */
+    public void put(String keyPrefix, String key, Object value, long maxTtl){
+        if (!enabled){
+            return;
+        }
+        long ttl = Math.min(prefixTtls.getOrDefault(keyPrefix, defaultTtl), maxTtl);
+        if (ttl <= 0){
+            return;
+        }
+        Entry entry = new Entry(value == null ? NULL_VALUE : value, System.currentTimeMillis() + ttl);
+        synchronized (this){
+            if (entries.put(key, entry) == null){
+                window.add(key);
+                evict();
+            }
+        }
+    }
+
+    /**
+     * 删除本节点的本地缓存
+     * @param key 缓存key
+     */
+    public void invalidate(String key){
+        if (enabled){
+            remove(key);
+        }
+    }
+
+    /**
+     * 删除所有节点的本地缓存
+     * @param key 缓存key
+     */
+    public void invalidateAll(String key){
+        if (enabled){
+            remove(key);
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 接收其他节点广播的删除消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        remove(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 缓存数量
+     */
+    public synchronized int size(){
+        return window.size() + main.size();
+    }
+
+    private synchronized void remove(String key){
+        if (entries.remove(key) != null){
+            window.remove(key);
+            main.remove(key);
+        }
+    }
+
+    /**
+     * 窗口区超出容量时，最早的key进入主区；主区已满时与主区最早的key比较访问频率
+     */
+    private void evict(){
+        while (window.size() > windowSize){
+            String candidate = pollFirst(window);
+            if (main.size() < mainSize){
+                main.add(candidate);
+                continue;
+            }
+            String victim = main.iterator().next();
+            if (sketch.frequency(candidate) > sketch.frequency(victim)){
+                main.remove(victim);
+                entries.remove(victim);
+                main.add(candidate);
+            } else {
+                entries.remove(candidate);
+            }
+        }
+    }
+
+    private static String pollFirst(LinkedHashSet<String> region){
+        Iterator<String> iterator = region.iterator();
+        String first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+
+    /**
+     * 访问频率的近似统计（Count-Min Sketch，4个哈希函数，计数上限15）
+     * 累计次数达到容量的10倍时所有计数减半，使频率随时间衰减
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private final int[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int maximumSize) {
+            int size = Integer.highestOneBit(Math.max(maximumSize * 4 - 1, 16)) << 1;
+            table = new int[size];
+            mask = size - 1;
+            sampleSize = maximumSize * 10;
+        }
+
+        /**
+         * 访问次数加一（并发时允许少量计数丢失）
+         */
+        private void increment(String key){
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++){
+                int index = indexOf(hash, i);
+                if (table[index] < MAX_COUNT){
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize){
+                reset();
+            }
+        }
+
+        private int frequency(String key){
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++){
+                frequency = Math.min(frequency, table[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset(){
+            for (int i = 0; i < table.length; i++){
+                table[i] >>>= 1;
+            }
+            additions = 0;
+        }
+
+        private int indexOf(int hash, int i){
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            return (int) (h >>> 32) & mask;
+        }
+
+        private static int spread(int hash){
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            return hash ^ hash >>> 11;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.felix.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/**
+ * 等待RabbitMQ发布确认的订单台账（内存、有界）
+ *
+ * 以订单id为key登记已发送但尚未收到ack的订单；收到ack后移除，收到nack或超时未确认时由调用方按退避时间重新发送。
+ * 容量通过CAS计数控制，登记和确认都不加锁
+ */
+public class OrderConfirmLedger {
+
+    /**
+     * 等待确认的订单
+     */
+    public static final class PendingPublish {
+        private final long orderId;
+        private final long userId;
+        private final long voucherId;
+        //已重新发送的次数
+        private volatile int attempts;
+        //下次重新发送的时间（毫秒），在此之前收到ack则不再发送
+        private volatile long retryAt;
+
+        private PendingPublish(long orderId, long userId, long voucherId, long retryAt) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.voucherId = voucherId;
+            this.retryAt = retryAt;
+        }
+
+        public long getOrderId() {
+            return orderId;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getVoucherId() {
+            return voucherId;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private final Map<Long, PendingPublish> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    public OrderConfirmLedger(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 登记一个已发送的订单
+     * @param retryAt 超时未确认时重新发送的时间
+     * @return false：台账已满
+     */
+    public boolean track(long orderId, long userId, long voucherId, long retryAt){
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity){
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        if (pending.put(orderId, new PendingPublish(orderId, userId, voucherId, retryAt)) != null){
+            //同一订单重复登记：只占用一个名额
+            size.decrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * 收到ack：移除订单
+     */
+    public void confirm(long orderId){
+        remove(orderId);
+    }
+
+    /**
+     * 收到nack：提前到指定时间重新发送
+     */
+    public void nack(long orderId, long retryAt){
+        PendingPublish publish = pending.get(orderId);
+        if (publish != null){
+            publish.retryAt = retryAt;
+        }
+    }
+
+    /**
+     * 取出到期需要重新发送的订单，并记录发送次数和下次重试时间
+     * @param now 当前时间
+     * @param nextRetryDelay 根据已发送次数计算下次重试的延迟
+     * @param max 最多取出的数量
+     * @param out 到期的订单
+     */
+    public void collectDue(long now, IntToLongFunction nextRetryDelay, int max, List<PendingPublish> out){
+        for (PendingPublish publish : pending.values()){
+            if (out.size() >= max){
+                return;
+            }
+            if (publish.retryAt <= now){
+                publish.attempts++;
+                publish.retryAt = now + nextRetryDelay.applyAsLong(publish.attempts);
+                out.add(publish);
+            }
+        }
+    }
+
+    /**
+     * 移除订单（确认或转存到本地日志后调用）
+     */
+    public void remove(long orderId){
+        if (pending.remove(orderId) != null){
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * 等待确认的订单数
+     */
+    public int size(){
+        return size.get();
+    }
+
+    public int capacity(){
+        return capacity;
+    }
+}
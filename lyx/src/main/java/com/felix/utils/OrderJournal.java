@@ -0,0 +1,200 @@
+package com.felix.utils;
+
+import com.felix.model.entity.VoucherOrder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于内存映射文件的订单日志（追加写 + 持久化读游标）
+ *
+ * 文件结构：
+ *  1、文件头：魔数(int) + 容量(int) + 读游标(long)，读游标之前的订单均已入库
+ *  2、记录区：容量个32字节的槽位，每条记录为 序号+1(long) + 订单id + 用户id + 秒杀券id，按 序号 % 容量 循环写入
+ *
+ * 写入时先写订单字段、最后写序号，序号与槽位匹配的记录才是完整记录；进程退出后数据仍在操作系统页缓存中，
+ * 重启时扫描读游标之后的所有完整记录即可找回尚未入库的订单
+ */
+public class OrderJournal {
+
+    private static final int MAGIC = 0x4F524A31;
+    private static final int HEADER_SIZE = 4096;
+    private static final int RECORD_SIZE = 32;
+    private static final int CURSOR_OFFSET = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    //下一个待分配的序号
+    private final AtomicLong writeSequence = new AtomicLong();
+    //已持久化的读游标（之前的记录均已入库）
+    private volatile long readCursor;
+    //消费者下一个要读取的序号（仅消费线程访问）
+    private long nextRead;
+
+    //记录已写完的标记（序号+1），保证消费线程读到的记录内容完整可见
+    private final AtomicLongArray published;
+
+    private final OrderRingBuffer.WaitStrategy waitStrategy;
+
+    /**
+     * 打开（不存在则创建）订单日志
+     * @param path 日志文件路径
+     * @param capacity 新建文件时的容量（记录数），已存在的文件沿用原容量
+     * @param waitStrategy 消费者等待策略
+     */
+    public OrderJournal(String path, int capacity, OrderRingBuffer.WaitStrategy waitStrategy) throws IOException {
+        File file = new File(path);
+        if (file.getParentFile() != null){
+            file.getParentFile().mkdirs();
+        }
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        if (exists){
+            //沿用已有文件的容量
+            raf.seek(4);
+            capacity = raf.readInt();
+        }
+        this.capacity = capacity;
+        this.channel = raf.getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        this.published = new AtomicLongArray(capacity);
+        this.waitStrategy = waitStrategy;
+
+        if (exists && buffer.getInt(0) == MAGIC){
+            readCursor = buffer.getLong(CURSOR_OFFSET);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            buffer.putLong(CURSOR_OFFSET, 0L);
+            readCursor = 0L;
+        }
+        writeSequence.set(readCursor);
+        nextRead = readCursor;
+    }
+
+    /**
+     * 追加一条订单
+     * @return false：日志已满（未入库的订单数达到容量）
+     */
+    public boolean append(long id, long userId, long voucherId){
+        long sequence;
+        do {
+            sequence = writeSequence.get();
+            if (sequence - readCursor >= capacity){
+                return false;
+            }
+        } while (!writeSequence.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) (sequence % capacity);
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        buffer.putLong(offset + 8, id);
+        buffer.putLong(offset + 16, userId);
+        buffer.putLong(offset + 24, voucherId);
+        //最后写入序号，标记记录完整
+        buffer.putLong(offset, sequence + 1);
+        //volatile写发布（完整内存屏障），与阻塞等待策略读取 waiting 的顺序一致，见 OrderRingBuffer.BlockingWaitStrategy
+        published.set(index, sequence + 1);
+        waitStrategy.signal();
+        return true;
+    }
+
+    /**
+     * 消费者（仅允许单线程调用）：等待至少一条记录可读，然后批量读取连续的记录
+     * 读取后需在入库成功后调用 commit() 持久化读游标
+     * @param maxBatch 一次最多读取的数量
+     * @param out 读取的订单
+     * @return 读取的数量
+     */
+    public int drain(int maxBatch, List<VoucherOrder> out) throws InterruptedException {
+        final long first = nextRead;
+        waitStrategy.waitFor(() -> isPublished(first));
+
+        long sequence = first;
+        while (sequence - first < maxBatch && isPublished(sequence)){
+            out.add(read(HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE));
+            sequence++;
+        }
+        nextRead = sequence;
+        return (int) (sequence - first);
+    }
+
+    /**
+     * 持久化读游标：之前读取的订单均已入库，对应槽位可以被覆盖
+     */
+    public void commit(){
+        buffer.putLong(CURSOR_OFFSET, nextRead);
+        readCursor = nextRead;
+    }
+
+    /**
+     * 持久化读游标：上次提交之后读取的订单中，只有前 persisted 条已入库（其余订单下次启动时重放）
+     * 恢复出的订单序号不连续时游标会落在已入库的订单之前，重放时按重复订单跳过
+     * @param persisted 已入库的订单数
+     */
+    public void commit(int persisted){
+        long cursor = Math.min(readCursor + persisted, nextRead);
+        buffer.putLong(CURSOR_OFFSET, cursor);
+        readCursor = cursor;
+    }
+
+    /**
+     * 将内存映射的数据刷到磁盘（防止操作系统宕机导致页缓存丢失）
+     */
+    public void force(){
+        buffer.force();
+    }
+
+    /**
+     * 启动时恢复：找出读游标之后所有完整记录（即上次进程退出前尚未入库的订单），按序号排序返回
+     * 恢复出的订单入库后需调用 commit()
+     * @return 尚未入库的订单
+     */
+    public List<VoucherOrder> recover(){
+        TreeMap<Long, VoucherOrder> pending = new TreeMap<>();
+        for (int index = 0; index < capacity; index++){
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            long sequence = buffer.getLong(offset) - 1;
+            //序号在读游标之后且与槽位匹配才是有效记录
+            if (sequence >= readCursor && sequence < readCursor + capacity && sequence % capacity == index){
+                pending.put(sequence, read(offset));
+            }
+        }
+        long next = pending.isEmpty() ? readCursor : pending.lastKey() + 1;
+        writeSequence.set(next);
+        nextRead = next;
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * 未入库的订单数
+     */
+    public long size(){
+        return writeSequence.get() - readCursor;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean isPublished(long sequence){
+        return published.get((int) (sequence % capacity)) == sequence + 1;
+    }
+
+    private VoucherOrder read(int offset){
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(buffer.getLong(offset + 8));
+        voucherOrder.setUserId(buffer.getLong(offset + 16));
+        voucherOrder.setVoucherId(buffer.getLong(offset + 24));
+        return voucherOrder;
+    }
+}
@@ -0,0 +1,131 @@
+package com.felix.utils;
+
+import com.felix.model.entity.VoucherOrder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_LEDGER_KEY;
+
+/**
+ * 订单发布台账
+ *
+ * 通过RabbitMQ下单的订单在Redis预扣成功时（seckill.lua中原子地）登记到 seckill:ledger:{voucherId} 哈希，
+ * field为订单id，value为 用户id:登记时间（秒）；订单入库的事务提交后删除。
+ * 台账中长时间未删除的订单说明消息丢失或尚未消费，由对账任务补发
+ */
+@Component
+public class OrderPublishLedger {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //是否启用订单发布台账
+    @Value("${lyx.order.ledger.enabled:false}")
+    private boolean enabled;
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * 登记订单（lua脚本无法登记的场景：分片库存、订单id在脚本中生成）
+     */
+    public void record(Long voucherId, Long orderId, Long userId){
+        stringRedisTemplate.opsForHash().put(SECKILL_LEDGER_KEY + voucherId, orderId.toString(),
+                entry(userId, System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * 订单入库的事务提交后删除台账记录，没有事务时立即删除
+     * @param voucherOrders 订单
+     */
+    public void removeAfterCommit(List<VoucherOrder> voucherOrders){
+        if (!enabled || voucherOrders.isEmpty()){
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            remove(voucherOrders);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                remove(voucherOrders);
+            }
+        });
+    }
+
+    /**
+     * 删除台账记录（按秒杀券分组，通过pipeline批量 HDEL）
+     */
+    public void remove(List<VoucherOrder> voucherOrders){
+        Map<Long, List<byte[]>> fields = new HashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders){
+            fields.computeIfAbsent(voucherOrder.getVoucherId(), id -> new ArrayList<>())
+                    .add(voucherOrder.getId().toString().getBytes(StandardCharsets.UTF_8));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, List<byte[]>> entry : fields.entrySet()){
+                connection.hashCommands().hDel((SECKILL_LEDGER_KEY + entry.getKey()).getBytes(StandardCharsets.UTF_8),
+                        entry.getValue().toArray(new byte[0][]));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 台账中尚未入库的订单数
+     */
+    public long pending(Long voucherId){
+        Long size = stringRedisTemplate.opsForHash().size(SECKILL_LEDGER_KEY + voucherId);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * 遍历台账（HSCAN，不阻塞Redis）
+     * @param voucherId 秒杀券id
+     * @param consumer 订单id, value（用户id:登记时间）
+     */
+    public void scan(Long voucherId, BiConsumer<String, String> consumer){
+        try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                .scan(SECKILL_LEDGER_KEY + voucherId, ScanOptions.scanOptions().count(500).build())){
+            while (cursor.hasNext()){
+                Map.Entry<Object, Object> entry = cursor.next();
+                consumer.accept(entry.getKey().toString(), entry.getValue().toString());
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            //关闭游标异常
+            throw new RuntimeException("遍历订单台账失败", e);
+        }
+    }
+
+    /**
+     * 刷新台账记录的登记时间（补发后调用，避免下一轮对账重复补发）
+     */
+    public void touch(Long voucherId, Long orderId, Long userId){
+        record(voucherId, orderId, userId);
+    }
+
+    /**
+     * 台账记录的value：用户id:登记时间（秒）
+     */
+    public static String entry(Long userId, long epochSecond){
+        return userId + ":" + epochSecond;
+    }
+}
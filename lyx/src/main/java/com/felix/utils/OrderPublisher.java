@@ -0,0 +1,252 @@
+package com.felix.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.felix.model.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.felix.model.constants.RabbitmqConstants.EXCHANGE;
+import static com.felix.model.constants.RabbitmqConstants.SHARD_EXCHANGE;
+
+/**
+ * 订单消息发送（秒杀下单和对账补发共用）
+ *
+ * 开启发布确认台账后，每条发送的订单先登记到内存台账，收到ack后移除；
+ * 收到nack或超时未确认的订单按指数退避重新发送，超过最大次数（Broker长时间不可用）或台账已满时转存到本地订单日志，
+ * 等Broker恢复、台账有空位后再从日志中取出重新发送
+ */
+@Slf4j
+@Component
+public class OrderPublisher {
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    //是否启用发布确认台账
+    @Value("${lyx.order.confirm.enabled:false}")
+    private boolean confirmEnabled;
+
+    //台账容量（等待确认的最大订单数）
+    @Value("${lyx.order.confirm.capacity:100000}")
+    private int capacity;
+
+    //等待确认的超时时间（毫秒）
+    @Value("${lyx.order.confirm.timeout:5000}")
+    private long timeoutMillis;
+
+    //重新发送的初始退避时间（毫秒），每次翻倍
+    @Value("${lyx.order.confirm.backoff-base:500}")
+    private long backoffBase;
+
+    //重新发送的最大退避时间（毫秒）
+    @Value("${lyx.order.confirm.backoff-max:30000}")
+    private long backoffMax;
+
+    //最多重新发送的次数，超过后转存到本地日志
+    @Value("${lyx.order.confirm.max-attempts:5}")
+    private int maxAttempts;
+
+    //是否发送到分片队列（一致性哈希交换机，按秒杀券id分片）
+    @Value("${lyx.order.shard.enabled:false}")
+    private boolean shardEnabled;
+
+    //本地日志文件路径
+    @Value("${lyx.order.confirm.journal-path:data/publish.journal}")
+    private String journalPath;
+
+    //本地日志容量（记录数）
+    @Value("${lyx.order.confirm.journal-capacity:262144}")
+    private int journalCapacity;
+
+    private OrderConfirmLedger confirmLedger;
+
+    private OrderJournal spillJournal;
+
+    //最近一次收到ack的时间，用于判断Broker是否已恢复
+    private volatile long lastAckTime;
+
+    //检查超时和重新发送的线程
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!confirmEnabled){
+            return;
+        }
+        confirmLedger = new OrderConfirmLedger(capacity);
+        spillJournal = new OrderJournal(journalPath, journalCapacity, OrderRingBuffer.waitStrategy("blocking"));
+        //上次进程退出前转存但尚未重新发送的订单
+        List<VoucherOrder> recovered = spillJournal.recover();
+        if (!recovered.isEmpty()){
+            log.info("发布确认日志中有{}个待重新发送的订单", recovered.size());
+            //publish 不会抛出异常：每个订单都已登记到台账或重新转存后才提交读游标，Broker不可用时也能正常启动
+            for (VoucherOrder voucherOrder : recovered){
+                publish(voucherOrder.getId(), voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            }
+            spillJournal.commit();
+        }
+        long interval = Math.max(backoffBase / 5, 20);
+        retryExecutor.scheduleWithFixedDelay(this::retrySafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        retryExecutor.shutdownNow();
+        if (spillJournal != null){
+            //未确认的订单转存到日志，下次启动时重新发送
+            List<OrderConfirmLedger.PendingPublish> remaining = new ArrayList<>();
+            confirmLedger.collectDue(Long.MAX_VALUE, attempts -> 0, Integer.MAX_VALUE, remaining);
+            for (OrderConfirmLedger.PendingPublish publish : remaining){
+                spill(publish.getOrderId(), publish.getUserId(), publish.getVoucherId());
+            }
+            spillJournal.force();
+            spillJournal.close();
+        }
+    }
+
+    /**
+     * 将订单信息发送到RabbitMQ
+     * 开启发布确认台账时不抛出异常：订单登记到台账（或转存到本地日志）后，发送失败由重试线程重新发送
+     * @param orderId 订单id
+     * @param userId 用户id
+     * @param voucherId 秒杀券id
+     */
+    public void publish(Long orderId, Long userId, Long voucherId){
+        if (!confirmEnabled){
+            send(orderId, userId, voucherId);
+            return;
+        }
+        if (!confirmLedger.track(orderId, userId, voucherId, System.currentTimeMillis() + timeoutMillis)){
+            //台账已满（Broker长时间未确认）：转存到本地日志，稍后再发送
+            spill(orderId, userId, voucherId);
+            return;
+        }
+        try {
+            send(orderId, userId, voucherId);
+        } catch (Exception e) {
+            //连接异常（Broker不可用）：订单已登记到台账，超时后重新发送
+            log.warn("发送订单{}失败，等待重新发送：{}", orderId, e.getMessage());
+        }
+    }
+
+    /**
+     * 处理Broker的发布确认（由 MyCallBack 调用）
+     * @param id 订单id
+     * @param ack 是否确认
+     */
+    public void onConfirm(String id, boolean ack){
+        //只处理订单消息的确认（死信转发等其他消息的确认id不是订单id）
+        if (!confirmEnabled || !StrUtil.isNumeric(id)){
+            return;
+        }
+        long orderId = Long.parseLong(id);
+        if (ack){
+            lastAckTime = System.currentTimeMillis();
+            confirmLedger.confirm(orderId);
+        } else {
+            //nack：按退避时间重新发送
+            confirmLedger.nack(orderId, System.currentTimeMillis() + backoffBase);
+        }
+    }
+
+    /**
+     * 等待确认的订单数和本地日志中的订单数
+     */
+    public long pendingConfirms(){
+        return confirmEnabled ? confirmLedger.size() : 0;
+    }
+
+    public long spilled(){
+        return confirmEnabled ? spillJournal.size() : 0;
+    }
+
+    private void send(Long orderId, Long userId, Long voucherId){
+        //1 封装VoucherOrder订单对象
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        //2 指定消息发送 id 为订单id（用于生产者发布确认）
+        CorrelationData correlationData = new CorrelationData(orderId.toString());
+        //3 将对象存入Rabbitmq，由 VoucherOrderMessageConverter 编码（分片模式下以秒杀券id为路由键，同一秒杀券的订单进入同一个分片队列）
+        if (shardEnabled){
+            rabbitTemplate.convertAndSend(SHARD_EXCHANGE, voucherId.toString(), voucherOrder, correlationData);
+        } else {
+            rabbitTemplate.convertAndSend(EXCHANGE, "msg", voucherOrder, correlationData);
+        }
+    }
+
+    private void spill(long orderId, long userId, long voucherId){
+        if (!spillJournal.append(orderId, userId, voucherId)){
+            //日志也已满：只能依赖Redis中的订单发布台账由对账任务补发
+            log.error("发布确认日志已满，订单{}未能转存", orderId);
+        }
+    }
+
+    private void retrySafely(){
+        try {
+            retry();
+        } catch (Exception e) {
+            log.error("重新发送未确认的订单异常", e);
+        }
+    }
+
+    /**
+     * 1、重新发送到期未确认的订单，超过最大次数的转存到本地日志
+     * 2、Broker已恢复且台账有空位时，从本地日志中取出订单重新发送
+     */
+    private void retry() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<OrderConfirmLedger.PendingPublish> due = new ArrayList<>();
+        confirmLedger.collectDue(now, this::backoff, 1000, due);
+        for (OrderConfirmLedger.PendingPublish publish : due){
+            if (publish.getAttempts() > maxAttempts){
+                confirmLedger.remove(publish.getOrderId());
+                spill(publish.getOrderId(), publish.getUserId(), publish.getVoucherId());
+                continue;
+            }
+            try {
+                send(publish.getOrderId(), publish.getUserId(), publish.getVoucherId());
+            } catch (Exception e) {
+                //连接异常：等下次到期再发送
+                log.warn("重新发送订单{}失败：{}", publish.getOrderId(), e.getMessage());
+            }
+        }
+
+        if (spillJournal.size() == 0 || confirmLedger.size() >= confirmLedger.capacity() / 2){
+            return;
+        }
+        //最近收到过ack说明Broker已恢复，批量取出；否则台账清空后每轮只取一条试探
+        int batch = now - lastAckTime < timeoutMillis ? 1000 : confirmLedger.size() == 0 ? 1 : 0;
+        if (batch > 0){
+            List<VoucherOrder> spilled = new ArrayList<>();
+            spillJournal.drain(batch, spilled);
+            for (VoucherOrder voucherOrder : spilled){
+                publish(voucherOrder.getId(), voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            }
+            //全部重新登记到台账（或台账已满时重新转存）后，才从日志中移除
+            spillJournal.commit();
+        }
+    }
+
+    /**
+     * 第attempts次重新发送后，下次重试前的等待时间：等待确认的超时时间 + 指数退避
+     */
+    private long backoff(int attempts){
+        long delay = backoffBase << Math.min(attempts, 16);
+        return timeoutMillis + Math.min(delay, backoffMax);
+    }
+}
@@ -0,0 +1,251 @@
+package com.felix.utils;
+
+import com.felix.model.entity.VoucherOrder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 无锁订单环形队列（参考Disruptor的多生产者-单消费者实现）
+ *
+ * 1、槽位在创建时一次性分配，槽位中的订单字段可复用，入队不产生新对象
+ * 2、生产者通过CAS抢占序号，写完槽位后再发布该槽位的"圈数"标记，消费者据此判断槽位是否可读
+ * 3、消费者一次批量取出连续可读的槽位，再统一推进消费序号
+ */
+public class OrderRingBuffer {
+
+    /**
+     * 可复用的订单槽位
+     */
+    private static final class OrderSlot {
+        private long id;
+        private long userId;
+        private long voucherId;
+    }
+
+    /**
+     * 消费者等待策略
+     */
+    public interface WaitStrategy {
+        /**
+         * 等待直到条件满足
+         */
+        void waitFor(BooleanSupplier ready) throws InterruptedException;
+
+        /**
+         * 生产者发布新数据后唤醒等待的消费者
+         */
+        void signal();
+    }
+
+    private final OrderSlot[] slots;
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+
+    //每个槽位已发布的圈数（序号 >>> indexShift），用于判断槽位是否可读
+    private final AtomicIntegerArray available;
+
+    //生产者已抢占的最大序号
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    //消费者已处理的最大序号
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * @param capacity 容量（必须为2的幂）
+     * @param waitStrategy 消费者等待策略
+     */
+    public OrderRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1){
+            throw new IllegalArgumentException("环形队列容量必须为2的幂");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.waitStrategy = waitStrategy;
+        this.slots = new OrderSlot[capacity];
+        this.available = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++){
+            slots[i] = new OrderSlot();
+            //初始圈数为-1，表示尚未发布
+            available.set(i, -1);
+        }
+    }
+
+    /**
+     * 生产者：发布一个订单
+     * @return false：队列已满
+     */
+    public boolean tryPublish(long id, long userId, long voucherId){
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            //队列已满：下一个槽位尚未被消费者处理
+            if (next - capacity > consumed.get()){
+                return false;
+            }
+        } while (!cursor.compareAndSet(current, next));
+
+        int index = (int) (next & mask);
+        OrderSlot slot = slots[index];
+        slot.id = id;
+        slot.userId = userId;
+        slot.voucherId = voucherId;
+        //发布槽位（volatile写，保证消费者看到标记时槽位内容已写完；
+        //同时是完整的内存屏障，随后 signal() 读取 waiting 不会重排到写标记之前，见 BlockingWaitStrategy）
+        available.set(index, (int) (next >>> indexShift));
+        waitStrategy.signal();
+        return true;
+    }
+
+    /**
+     * 消费者（仅允许单线程调用）：等待至少一个订单可读，然后批量取出连续可读的订单
+     * @param maxBatch 一次最多取出的数量
+     * @param out 取出的订单
+     * @return 取出的数量
+     */
+    public int drain(int maxBatch, List<VoucherOrder> out) throws InterruptedException {
+        final long first = consumed.get() + 1;
+        waitStrategy.waitFor(() -> isAvailable(first));
+
+        long sequence = first;
+        while (sequence - first < maxBatch && isAvailable(sequence)){
+            OrderSlot slot = slots[(int) (sequence & mask)];
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(slot.id);
+            voucherOrder.setUserId(slot.userId);
+            voucherOrder.setVoucherId(slot.voucherId);
+            out.add(voucherOrder);
+            sequence++;
+        }
+        //批量推进消费序号，释放槽位给生产者
+        consumed.lazySet(sequence - 1);
+        return (int) (sequence - first);
+    }
+
+    /**
+     * 队列中待处理的订单数
+     */
+    public long size(){
+        return cursor.get() - consumed.get();
+    }
+
+    private boolean isAvailable(long sequence){
+        return available.get((int) (sequence & mask)) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * 根据名称创建等待策略
+     * @param name blocking：加锁阻塞（CPU占用最低）；yielding：自旋后让出CPU；busy-spin：忙等（延迟最低，独占一个CPU核）
+     * @return
+     */
+    public static WaitStrategy waitStrategy(String name){
+        if ("busy-spin".equals(name)){
+            return new BusySpinWaitStrategy();
+        }
+        if ("yielding".equals(name)){
+            return new YieldingWaitStrategy();
+        }
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * 阻塞等待：消费者在条件变量上等待，生产者仅在有消费者等待时才加锁唤醒
+     *
+     * 生产者 "写可读标记 -> 读waiting"，消费者 "写waiting -> 读可读标记"，两边都是volatile读写（顺序一致），
+     * 不会出现双方都读到旧值的情况：消费者没看到新订单时，生产者一定看到 waiting 为true并唤醒它。
+     * 若生产者用 lazySet 发布，写标记可能排在读waiting之后，消费者就只能等限时等待超时才被唤醒
+     */
+    private static final class BlockingWaitStrategy implements WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private volatile boolean waiting;
+
+        @Override
+        public void waitFor(BooleanSupplier ready) throws InterruptedException {
+            if (ready.getAsBoolean()){
+                return;
+            }
+            lock.lock();
+            try {
+                waiting = true;
+                while (!ready.getAsBoolean()){
+                    //限时等待只是兜底（如自定义的生产者未使用volatile写发布）
+                    notEmpty.await(1, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waiting = false;
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (waiting){
+                lock.lock();
+                try {
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 让出CPU：先自旋一段时间，仍无数据时调用Thread.yield()
+     */
+    private static final class YieldingWaitStrategy implements WaitStrategy {
+
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public void waitFor(BooleanSupplier ready) throws InterruptedException {
+            int counter = SPIN_TRIES;
+            while (!ready.getAsBoolean()){
+                if (Thread.interrupted()){
+                    throw new InterruptedException();
+                }
+                if (counter > 0){
+                    counter--;
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    /**
+     * 忙等：一直自旋检查
+     */
+    private static final class BusySpinWaitStrategy implements WaitStrategy {
+
+        @Override
+        public void waitFor(BooleanSupplier ready) throws InterruptedException {
+            while (!ready.getAsBoolean()){
+                if (Thread.interrupted()){
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.felix.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 已入库订单过滤器（订单消费幂等）
+ *
+ * 直接映射的定长数组：订单id按哈希映射到一个槽位，槽位中保存完整的订单id。
+ * 命中即说明订单已入库（不会误判），消息重复投递时不必访问数据库；
+ * 槽位被其他订单覆盖后会漏判，由数据库订单id主键冲突兜底
+ */
+@Component
+public class ProcessedOrderFilter {
+
+    //槽位数（向上取整为2的幂）
+    @Value("${lyx.order.idempotent.filter-size:65536}")
+    private int filterSize;
+
+    private AtomicLongArray slots;
+    private int mask;
+
+    @PostConstruct
+    public void init(){
+        int size = Integer.highestOneBit(Math.max(filterSize - 1, 1)) << 1;
+        slots = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    /**
+     * 订单是否已入库
+     * @param orderId 订单id
+     * @return true：已入库；false：未知（需由数据库判断）
+     */
+    public boolean contains(long orderId){
+        return orderId != 0 && slots.get(index(orderId)) == orderId;
+    }
+
+    /**
+     * 标记订单已入库：在当前事务提交后才标记（事务回滚则不标记），没有事务时立即标记
+     * @param orderIds 订单id
+     */
+    public void markAfterCommit(List<Long> orderIds){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            mark(orderIds);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                mark(orderIds);
+            }
+        });
+    }
+
+    private void mark(List<Long> orderIds){
+        for (Long orderId : orderIds){
+            slots.lazySet(index(orderId), orderId);
+        }
+    }
+
+    private int index(long orderId){
+        //订单id低32位是自增序列号，高位是时间戳，混合后取低位
+        long hash = orderId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
@@ -1,19 +1,33 @@
 package com.felix.utils;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 使用Redis生成全局唯一Id
  *
  * long类型数据8字节64bit（1bit为字符位，31bit为时间戳，32bit为序列号）
+ *
+ * 号段模式（lyx.id.segment.enabled）：每个节点每个前缀用一次 INCRBY 租用一段序列号，在本地用原子计数器分配，
+ * 当前号段用到80%时异步预取下一段，绝大多数Id不再访问Redis；号段按天租用，跨天后丢弃旧号段。
+ * 节点重启时未用完的序列号作废，序列号不再连续但仍唯一
  */
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
 
     //开始时间戳
     private static final long BEGIN_TIMESTAMP = 1640995200L;
@@ -21,10 +35,51 @@ public class RedisIdWorker {
     //序列号位数
     private static final int COUNT_BITS = 32;
 
+    //序列号key的日期格式
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final long SECONDS_PER_DAY = 86400;
+
+    //最近一次格式化的日期（不可变对象，多线程替换时最多重复格式化一次）
+    private static volatile CachedDate cachedDate;
+
+    private static final class CachedDate {
+        private final long day;
+        private final String date;
+
+        private CachedDate(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    //基于Lettuce的非阻塞客户端，用于异步生成Id
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    //是否启用号段模式
+    @Value("${lyx.id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    //每次租用的序列号数量
+    @Value("${lyx.id.segment.size:1000}")
+    private int segmentSize;
+
+    //前缀 -> 号段缓冲
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
+    //异步预取号段的线程
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         ReactiveStringRedisTemplate reactiveStringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveStringRedisTemplate = reactiveStringRedisTemplate;
     }
 
     /**
@@ -32,6 +87,7 @@ public class RedisIdWorker {
      * @param keyPrefix Redis中的业务前缀
      * @return 全局唯一Id
      */
+    @Override
     public long nextId(String keyPrefix){
         //1、生成时间戳
         LocalDateTime nowTime = LocalDateTime.now();
@@ -40,11 +96,183 @@ public class RedisIdWorker {
 
         //2、生成序列号
         //2.1 生成时间，精确到天，用于Redis的key后缀，分天存储避免数据过大，且方便统计数据量
-        String date = nowTime.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = dateOf(nowSecond);
+        //2.2 号段模式：从本地号段中分配
+        if (segmentEnabled){
+            long count = segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date);
+            return timeStamp << COUNT_BITS | count;
+        }
         Long count = stringRedisTemplate.opsForValue().increment("inc:" + keyPrefix + ":" + date);
 
         //3、拼接并返回
-        return timeStamp << 32 | count;
+        return timeStamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 异步获取全局唯一Id（不阻塞调用线程，回调运行在Lettuce的IO线程上）
+     * @param keyPrefix Redis中的业务前缀
+     * @return 全局唯一Id
+     */
+    @Override
+    public CompletableFuture<Long> nextIdAsync(String keyPrefix){
+        //号段模式：本地分配，通常不访问Redis
+        if (segmentEnabled){
+            return CompletableFuture.completedFuture(nextId(keyPrefix));
+        }
+        //1、生成时间戳
+        LocalDateTime nowTime = LocalDateTime.now();
+        long nowSecond = nowTime.toEpochSecond(ZoneOffset.UTC);
+        long timeStamp = nowSecond - BEGIN_TIMESTAMP;
+
+        //2、异步生成序列号
+        String date = dateOf(nowSecond);
+        return reactiveStringRedisTemplate.opsForValue()
+                .increment("inc:" + keyPrefix + ":" + date)
+                .toFuture()
+                //3、拼接并返回
+                .thenApply(count -> timeStamp << 32 | count);
+    }
+
+    @Override
+    public long minIdAt(LocalDateTime time){
+        return compose(timestampOf(time), 0);
+    }
+
+    /**
+     * 订单序列号在Redis中的key（按天分key）
+     * @param keyPrefix Redis中的业务前缀
+     * @param nowTime 当前时间
+     * @return inc:前缀:yyyy:MM:dd
+     */
+    public static String counterKey(String keyPrefix, LocalDateTime nowTime){
+        return "inc:" + keyPrefix + ":" + dateOf(nowTime.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * 序列号key的日期部分，同一天内复用格式化结果（每个Id都格式化一次日期是号段模式下的主要开销）
+     * @param epochSecond 当前时间的秒数（toEpochSecond(ZoneOffset.UTC)，与Id中的时间戳一致）
+     * @return yyyy:MM:dd
+     */
+    private static String dateOf(long epochSecond){
+        long day = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        CachedDate cached = cachedDate;
+        if (cached == null || cached.day != day){
+            cached = new CachedDate(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.date;
+    }
+
+    /**
+     * Id中的时间戳部分（相对开始时间戳的秒数）
+     */
+    public static long timestampOf(LocalDateTime nowTime){
+        return nowTime.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 拼接时间戳和序列号（用于在Lua脚本中生成序列号的场景）
+     * @param timeStamp 时间戳部分
+     * @param count 序列号
+     * @return 全局唯一Id
+     */
+    public static long compose(long timeStamp, long count){
+        return timeStamp << COUNT_BITS | count;
+    }
+
+    @PreDestroy
+    public void destroy(){
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 一段租用的序列号 [start, end]
+     */
+    private static final class Segment {
+        //租用的日期（序列号key的后缀）
+        private final String date;
+        //下一个分配的序列号
+        private final AtomicLong cursor;
+        private final long end;
+        //分配到该序列号时预取下一段
+        private final long prefetchAt;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = start + (end - start + 1) * 8 / 10;
+        }
+    }
+
+    /**
+     * 单个前缀的号段缓冲：当前号段 + 预取的下一段
+     */
+    private final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> prefetched;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        /**
+         * 分配一个序列号：号段内只有一次CAS，号段用完或跨天时才切换号段
+         */
+        private long next(String date){
+            while (true){
+                Segment segment = current;
+                if (segment == null || !segment.date.equals(date)){
+                    advance(segment, date);
+                    continue;
+                }
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.end){
+                    if (count == segment.prefetchAt){
+                        //只有分配到预取点的线程触发预取
+                        prefetched = CompletableFuture.supplyAsync(() -> lease(date), prefetchExecutor);
+                    }
+                    return count;
+                }
+                advance(segment, date);
+            }
+        }
+
+        /**
+         * 切换到下一段：优先使用预取的号段，预取失败或日期不符时同步租用
+         * @param exhausted 已用完（或已过期）的号段，其他线程已切换过时直接返回
+         */
+        private synchronized void advance(Segment exhausted, String date){
+            if (current != exhausted){
+                return;
+            }
+            Segment segment = null;
+            CompletableFuture<Segment> future = prefetched;
+            prefetched = null;
+            if (future != null){
+                try {
+                    segment = future.join();
+                } catch (Exception e) {
+                    //预取失败：同步租用
+                }
+            }
+            if (segment == null || !segment.date.equals(date)){
+                segment = lease(date);
+            }
+            current = segment;
+        }
+
+        /**
+         * 用一次 INCRBY 租用一段序列号
+         */
+        private Segment lease(String date){
+            Long end = stringRedisTemplate.opsForValue().increment("inc:" + keyPrefix + ":" + date, segmentSize);
+            if (end == null){
+                throw new IllegalStateException("租用序列号失败");
+            }
+            return new Segment(date, end - segmentSize + 1, end);
+        }
     }
 
     /**
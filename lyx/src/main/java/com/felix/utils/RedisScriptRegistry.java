@@ -0,0 +1,181 @@
+package com.felix.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lua脚本注册中心
+ *
+ * 所有Lua脚本在这里统一登记，启动时通过 SCRIPT LOAD 预先加载到Redis，执行时只发送 EVALSHA；
+ * Redis重启或执行过 SCRIPT FLUSH 导致返回 NOSCRIPT 时，重新加载该脚本后再执行一次
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+
+    //秒杀资格校验并预扣库存
+    public static final String SECKILL = "seckill";
+    //秒杀资格校验、预扣库存并生成订单序列号（一次往返完成）
+    public static final String SECKILL_WITH_ID = "seckill_id";
+    //分片库存：主分片预扣
+    public static final String SECKILL_SHARD = "seckill_shard";
+    //分片库存：兄弟分片窃取
+    public static final String SECKILL_STEAL = "seckill_steal";
+    //释放分布式锁
+    public static final String UNLOCK = "unlock";
+    //转移Stream中空闲的pending消息
+    public static final String STREAM_AUTOCLAIM = "stream_autoclaim";
+    //工作机器id租约续期
+    public static final String WORKER_RENEW = "worker_renew";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //脚本名称 -> 脚本
+    private final Map<String, DefaultRedisScript<?>> scripts = new LinkedHashMap<>();
+
+    public RedisScriptRegistry() {
+        register(SECKILL, Long.class);
+        register(SECKILL_WITH_ID, Long.class);
+        register(SECKILL_SHARD, Long.class);
+        register(SECKILL_STEAL, Long.class);
+        register(UNLOCK, Long.class);
+        register(STREAM_AUTOCLAIM, List.class);
+        register(WORKER_RENEW, Long.class);
+    }
+
+    /**
+     * 登记脚本：脚本文件为 classpath 下的 name.lua
+     */
+    @SuppressWarnings("unchecked")
+    private void register(String name, Class<?> resultType){
+        DefaultRedisScript<Object> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(name + ".lua"));
+        script.setResultType((Class<Object>) resultType);
+        scripts.put(name, script);
+    }
+
+    /**
+     * 启动时预加载所有脚本
+     */
+    @PostConstruct
+    public void init(){
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (DefaultRedisScript<?> script : scripts.values()){
+                    connection.scriptingCommands().scriptLoad(scriptBytes(script));
+                }
+                return null;
+            });
+            log.info("已预加载{}个Lua脚本", scripts.size());
+        } catch (Exception e) {
+            //预加载失败不影响启动，执行时遇到NOSCRIPT会再加载
+            log.error("预加载Lua脚本失败", e);
+        }
+    }
+
+    /**
+     * 获取脚本（用于ReactiveStringRedisTemplate等需要RedisScript对象的场景）
+     * @param name 脚本名称
+     * @return 脚本
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RedisScript<T> script(String name){
+        DefaultRedisScript<?> script = scripts.get(name);
+        if (script == null){
+            throw new IllegalArgumentException("Lua脚本" + name + "未登记");
+        }
+        return (RedisScript<T>) script;
+    }
+
+    /**
+     * 通过 EVALSHA 执行脚本，返回 NOSCRIPT 时重新加载后再执行
+     * @param name 脚本名称
+     * @param keys KEYS
+     * @param args ARGV
+     * @return 脚本返回值（字符串结果已转换为String）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, List<String> keys, String... args){
+        RedisScript<T> script = script(name);
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys){
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (String arg : args){
+            keysAndArgs[i++] = arg.getBytes(StandardCharsets.UTF_8);
+        }
+        return stringRedisTemplate.execute((RedisCallback<T>) connection -> {
+            Object result;
+            try {
+                result = evalSha(connection, script, returnType, keys.size(), keysAndArgs);
+            } catch (Exception e) {
+                if (!isNoScript(e)){
+                    throw e;
+                }
+                //脚本缓存已被清空：重新加载后再执行
+                log.warn("Lua脚本{}不存在，重新加载", name);
+                connection.scriptingCommands().scriptLoad(scriptBytes(script));
+                result = evalSha(connection, script, returnType, keys.size(), keysAndArgs);
+            }
+            return (T) deserialize(result);
+        });
+    }
+
+    private Object evalSha(RedisConnection connection, RedisScript<?> script, ReturnType returnType,
+                           int numKeys, byte[][] keysAndArgs){
+        return connection.scriptingCommands().evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+    }
+
+    private static byte[] scriptBytes(RedisScript<?> script){
+        return script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 判断异常是否由 NOSCRIPT 引起
+     */
+    private static boolean isNoScript(Throwable e){
+        while (e != null){
+            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")){
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * 将脚本返回的字节数组转换为字符串
+     */
+    private static Object deserialize(Object result){
+        if (result instanceof byte[]){
+            return new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        if (result instanceof List){
+            List<?> list = (List<?>) result;
+            List<Object> converted = new ArrayList<>(list.size());
+            for (Object item : list){
+                converted.add(deserialize(item));
+            }
+            return converted;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package com.felix.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.felix.model.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_STOCK_KEY;
+import static com.felix.model.constants.RedisConstants.SECKILL_TICKET_KEY;
+
+/**
+ * 秒杀准入控制（虚拟等候室）
+ *
+ * 请求进入秒杀逻辑前按时间窗口限流，每个窗口内只放行 剩余库存 * 倍数 个请求：
+ *  1、本地令牌桶：每个节点每个窗口最多放行 剩余库存 * 倍数 个请求，超出的请求不访问Redis直接拒绝
+ *  2、Redis排队号：通过本地令牌桶的请求再 INCR seckill:ticket:{voucherId}:{窗口}，集群内每个窗口同样只放行 剩余库存 * 倍数 个，
+ *     超出的请求返回排队位置，由前端稍后重试
+ * 剩余库存按窗口从Redis读取并缓存在本地，售罄后直接返回库存不足
+ */
+@Slf4j
+@Component
+public class SeckillAdmissionControl {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    //是否启用准入控制
+    @Value("${lyx.seckill.admission.enabled:false}")
+    private boolean enabled;
+
+    //每个窗口放行的请求数相对剩余库存的倍数
+    @Value("${lyx.seckill.admission.multiple:3}")
+    private int multiple;
+
+    //窗口长度（毫秒）
+    @Value("${lyx.seckill.admission.window:1000}")
+    private long windowMillis;
+
+    //秒杀券id -> 本地准入状态
+    private final Map<Long, VoucherGate> gates = new ConcurrentHashMap<>();
+
+    /**
+     * 判断请求能否进入秒杀逻辑
+     * @param voucherId 秒杀券id
+     * @return null：放行；否则为直接返回给前端的结果
+     */
+    public Result admit(Long voucherId){
+        if (!enabled){
+            return null;
+        }
+        long window = System.currentTimeMillis() / windowMillis;
+        VoucherGate gate = gates.computeIfAbsent(voucherId, id -> new VoucherGate());
+
+        //1、新窗口：刷新剩余库存并重置本地令牌
+        long limit = gate.refresh(voucherId, window);
+        if (limit <= 0){
+            return Result.fail("库存不足！");
+        }
+
+        //2、本地令牌桶
+        if (!gate.tryAcquire()){
+            return Result.fail("抢购人数过多，请稍后再试！");
+        }
+
+        //3、Redis排队号：集群内每个窗口的放行数量
+        try {
+            String key = SECKILL_TICKET_KEY + voucherId + ":" + window;
+            Long ticket = stringRedisTemplate.opsForValue().increment(key);
+            if (ticket != null && ticket == 1){
+                stringRedisTemplate.expire(key, windowMillis * 2, TimeUnit.MILLISECONDS);
+            }
+            if (ticket != null && ticket > limit){
+                //排队位置：超出本窗口放行数量的部分
+                return new Result(false, "抢购人数过多，请稍后再试！", ticket - limit, null);
+            }
+        } catch (Exception e) {
+            //Redis排队号异常时只依赖本地令牌桶限流
+            log.error("秒杀券{}获取排队号异常", voucherId, e);
+        }
+        return null;
+    }
+
+    /**
+     * 清除秒杀券的本地准入状态（新增秒杀券或补库存后调用），下一个请求重新读取剩余库存
+     * @param voucherId 秒杀券id
+     */
+    public void reset(Long voucherId){
+        gates.remove(voucherId);
+    }
+
+    /**
+     * 查询Redis中的剩余库存
+     */
+    private long remainingStock(Long voucherId){
+        if (stockSharding.shardsOf(voucherId) > 1){
+            return stockSharding.remainingStock(voucherId);
+        }
+        String stock = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+        return StrUtil.isBlank(stock) ? 0 : Long.parseLong(stock);
+    }
+
+    /**
+     * 单个秒杀券的本地准入状态
+     */
+    private class VoucherGate {
+
+        //当前窗口
+        private long window = -1;
+        //当前窗口的放行上限（剩余库存 * 倍数）
+        private long limit;
+        //当前窗口剩余的本地令牌
+        private long tokens;
+
+        /**
+         * 进入新窗口时刷新放行上限和本地令牌
+         * @return 当前窗口的放行上限
+         */
+        synchronized long refresh(Long voucherId, long current){
+            if (current != window){
+                window = current;
+                try {
+                    limit = Math.max(remainingStock(voucherId), 0) * multiple;
+                } catch (Exception e) {
+                    //读取库存失败时沿用上个窗口的上限
+                    log.error("秒杀券{}读取剩余库存异常", voucherId, e);
+                }
+                tokens = limit;
+            }
+            return limit;
+        }
+
+        synchronized boolean tryAcquire(){
+            if (tokens <= 0){
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.felix.utils;
+
+import com.felix.model.entity.SeckillVoucher;
+import com.felix.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_META_KEY;
+import static com.felix.model.constants.RedisConstants.SECKILL_ORDER_BITMAP_KEY;
+
+/**
+ * 秒杀信息（开始/结束时间、一人一单去重方式）在Redis中的存储
+ *
+ * 秒杀信息保存在 seckill:meta:{voucherId} 哈希中，与库存key放在一起，由秒杀lua脚本用Redis服务器时间原子地校验秒杀时间，
+ * 不再查询数据库；分片库存的秒杀券在每个分片的 seckill:meta:{voucherId:i} 中各保存一份，保证与分片库存key在同一个slot。
+ * 启动时批量加载所有未结束的秒杀券的秒杀信息。
+ * 哈希中同时记录一人一单的去重方式（集合或位图），由lua脚本据此选择去重结构
+ */
+@Slf4j
+@Component
+public class SeckillMetaStore implements ApplicationRunner {
+
+    //秒杀开始时间（秒级时间戳）
+    public static final String FIELD_BEGIN = "begin";
+    //秒杀结束时间（秒级时间戳）
+    public static final String FIELD_END = "end";
+    //一人一单去重方式
+    public static final String FIELD_DEDUP = "dedup";
+
+    //去重方式：Redis集合，保存下单用户id字符串
+    public static final String DEDUP_SET = "set";
+    //去重方式：位图，用户id为位偏移，按块拆分为多个key，避免稀疏的大id分配过大的位图
+    public static final String DEDUP_BITMAP = "bitmap";
+
+    //每个位图块的位数（2^20位，每块最多128KB），需与lua脚本保持一致
+    public static final long BITMAP_CHUNK_BITS = 1L << 20;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockSharding stockSharding;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    //是否在启动时加载秒杀信息
+    @Value("${lyx.seckill.meta-preload:true}")
+    private boolean preload;
+
+    //新建秒杀券时默认的一人一单去重方式
+    @Value("${lyx.seckill.dedup:set}")
+    private String defaultDedup;
+
+    /**
+     * 确定新建秒杀券的一人一单去重方式
+     * @param requested 请求中指定的去重方式，为空时使用默认配置
+     * @param shards 库存分片数
+     * @return set / bitmap
+     */
+    public String resolveDedup(String requested, int shards){
+        String dedup = requested != null ? requested : defaultDedup;
+        if (!DEDUP_BITMAP.equals(dedup)){
+            return DEDUP_SET;
+        }
+        if (shards > 1){
+            //分片库存的一人一单记录在各分片的集合中，不支持位图
+            log.warn("库存分片的秒杀券不支持位图去重，改用集合去重");
+            return DEDUP_SET;
+        }
+        return DEDUP_BITMAP;
+    }
+
+    /**
+     * 保存秒杀券的秒杀时间和去重方式（新增秒杀券时调用）
+     * @param voucherId 秒杀券id
+     * @param beginTime 秒杀开始时间
+     * @param endTime 秒杀结束时间
+     * @param dedup 一人一单去重方式
+     */
+    public void save(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, String dedup){
+        Map<String, String> meta = toWindow(beginTime, endTime);
+        meta.put(FIELD_DEDUP, dedup);
+        for (String key : metaKeys(voucherId)){
+            stringRedisTemplate.opsForHash().putAll(key, meta);
+        }
+    }
+
+    /**
+     * 查询秒杀券的一人一单去重方式
+     * @param voucherId 秒杀券id
+     * @return set / bitmap，Redis中未保存时返回null
+     */
+    public String dedupOf(Long voucherId){
+        Object dedup = stringRedisTemplate.opsForHash().get(SECKILL_META_KEY + voucherId, FIELD_DEDUP);
+        if (dedup == null){
+            return null;
+        }
+        return DEDUP_BITMAP.equals(dedup) ? DEDUP_BITMAP : DEDUP_SET;
+    }
+
+    /**
+     * 用户在位图去重中所在的块key
+     */
+    public static String bitmapKey(Long voucherId, Long userId){
+        return SECKILL_ORDER_BITMAP_KEY + voucherId + ":" + userId / BITMAP_CHUNK_BITS;
+    }
+
+    /**
+     * 用户在位图块中的位偏移
+     */
+    public static long bitmapOffset(Long userId){
+        return userId % BITMAP_CHUNK_BITS;
+    }
+
+    /**
+     * 启动时用pipeline批量加载所有未结束的秒杀券的秒杀时间
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!preload){
+            return;
+        }
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        if (vouchers.isEmpty()){
+            return;
+        }
+        //先在pipeline外查出分片数，避免在pipeline中执行其他命令
+        Map<String, Map<String, String>> windows = new HashMap<>();
+        for (SeckillVoucher voucher : vouchers){
+            Map<String, String> window = toWindow(voucher.getBeginTime(), voucher.getEndTime());
+            for (String key : metaKeys(voucher.getVoucherId())){
+                windows.put(key, window);
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, Map<String, String>> entry : windows.entrySet()){
+                Map<byte[], byte[]> hash = new HashMap<>();
+                for (Map.Entry<String, String> field : entry.getValue().entrySet()){
+                    hash.put(field.getKey().getBytes(StandardCharsets.UTF_8), field.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+                connection.hashCommands().hMSet(entry.getKey().getBytes(StandardCharsets.UTF_8), hash);
+            }
+            return null;
+        });
+        log.info("已加载{}个秒杀券的秒杀时间", vouchers.size());
+    }
+
+    /**
+     * 秒杀券的所有秒杀信息key：未分片时为 seckill:meta:{voucherId}，分片时每个分片一个
+     */
+    private List<String> metaKeys(Long voucherId){
+        int shards = stockSharding.shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        if (shards <= 1){
+            keys.add(SECKILL_META_KEY + voucherId);
+            return keys;
+        }
+        for (int i = 0; i < shards; i++){
+            keys.add(SeckillStockSharding.metaKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    private static Map<String, String> toWindow(LocalDateTime beginTime, LocalDateTime endTime){
+        //Redis TIME 返回的是Unix时间戳，按系统时区换算
+        Map<String, String> window = new HashMap<>();
+        window.put(FIELD_BEGIN, String.valueOf(beginTime.atZone(ZoneId.systemDefault()).toEpochSecond()));
+        window.put(FIELD_END, String.valueOf(endTime.atZone(ZoneId.systemDefault()).toEpochSecond()));
+        return window;
+    }
+}
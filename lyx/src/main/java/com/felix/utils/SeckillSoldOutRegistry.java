@@ -0,0 +1,108 @@
+package com.felix.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.felix.model.constants.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券本地售罄标记
+ *
+ * lua脚本返回库存不足后在本节点标记该秒杀券已售罄，并通过Redis发布订阅通知其他节点，
+ * 之后对该秒杀券的请求直接在JVM内拒绝，不再访问Redis。
+ * 标记带有效期，过期后放行一次请求重新由Redis判断，避免补库存通知丢失或乱序导致秒杀券一直被误判为售罄
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    //频道消息前缀：标记售罄 / 清除标记
+    private static final String MARK_PREFIX = "+";
+    private static final String RESET_PREFIX = "-";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //售罄标记的有效期（毫秒）
+    @Value("${lyx.seckill.sold-out-ttl:60000}")
+    private long soldOutTtl;
+
+    //秒杀券id -> 标记售罄的时间
+    private final Map<Long, Long> soldOutVouchers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init(){
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 判断秒杀券是否已在本地标记为售罄
+     * @param voucherId 秒杀券id
+     * @return true：已售罄
+     */
+    public boolean isSoldOut(Long voucherId){
+        Long markTime = soldOutVouchers.get(voucherId);
+        if (markTime == null){
+            return false;
+        }
+        if (System.currentTimeMillis() - markTime > soldOutTtl){
+            //标记过期：移除后放行，重新交给Redis判断
+            soldOutVouchers.remove(voucherId, markTime);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记秒杀券已售罄，并广播给其他节点
+     * @param voucherId 秒杀券id
+     */
+    public void markSoldOut(Long voucherId){
+        //本节点首次标记时才广播，避免并发请求重复发布
+        if (soldOutVouchers.put(voucherId, System.currentTimeMillis()) == null){
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, MARK_PREFIX + voucherId);
+        }
+    }
+
+    /**
+     * 清除秒杀券的售罄标记（新增秒杀券或补库存后调用），并广播给其他节点
+     * @param voucherId 秒杀券id
+     */
+    public void reset(Long voucherId){
+        soldOutVouchers.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    /**
+     * 接收其他节点广播的售罄/清除消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.startsWith(MARK_PREFIX)){
+                soldOutVouchers.putIfAbsent(voucherId, System.currentTimeMillis());
+            } else if (body.startsWith(RESET_PREFIX)){
+                soldOutVouchers.remove(voucherId);
+            }
+        } catch (Exception e) {
+            log.error("解析售罄广播消息{}失败", body, e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.felix.utils;
+
+import com.felix.mapper.VoucherOrderMapper;
+import com.felix.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀库存扣减合并器
+ *
+ * 订单入库时不再逐条执行 stock = stock - 1，而是以"库存未扣减"（stock_settled = 0）状态与订单在同一个事务中入库，
+ * 由后台线程每个时间窗口对每个秒杀券执行一次：将未扣减的订单标记为已扣减，并按标记的数量执行 stock = stock - n，
+ * 热点行每个窗口只加一次行锁。
+ *
+ * 待扣减的数量保存在订单表中而不是内存中：进程崩溃（kill -9、宕机）后，启动时查询仍有未扣减订单的秒杀券继续扣减；
+ * 其他节点合并同一秒杀券时也会一并扣减已崩溃节点留下的订单，扣减不会丢失也不会重复
+ */
+@Slf4j
+@Component
+public class SeckillStockAggregator {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    //是否启用库存扣减合并
+    @Value("${lyx.order.stock-aggregate.enabled:false}")
+    private boolean enabled;
+
+    //合并窗口（毫秒）
+    @Value("${lyx.order.stock-aggregate.window:100}")
+    private long windowMillis;
+
+    //每个秒杀券每次最多合并的订单数，超过时下个窗口继续
+    private static final int SETTLE_BATCH = 1000;
+
+    //有待扣减订单的秒杀券id
+    private final Set<Long> pendingVouchers = ConcurrentHashMap.newKeySet();
+
+    //定时写入数据库的线程
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init(){
+        if (enabled){
+            //上次运行（或其他已下线的节点）留下的未扣减订单
+            pendingVouchers.addAll(voucherOrderMapper.selectUnsettledVoucherIds());
+            if (!pendingVouchers.isEmpty()){
+                log.info("{}个秒杀券存在未扣减库存的订单，继续合并扣减", pendingVouchers.size());
+            }
+            flushExecutor.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy(){
+        flushExecutor.shutdown();
+        //关闭前扣减剩余的订单
+        flush();
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * 登记待扣减的秒杀券：在当前事务提交后才登记（事务回滚则订单不存在，无需扣减），没有事务时立即登记
+     * @param voucherId 秒杀券id
+     */
+    public void addAfterCommit(Long voucherId){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            pendingVouchers.add(voucherId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                pendingVouchers.add(voucherId);
+            }
+        });
+    }
+
+    /**
+     * 对每个秒杀券执行一次合并后的库存扣减
+     */
+    private void flush(){
+        for (Long voucherId : pendingVouchers){
+            //先移除再扣减：扣减期间新提交的订单会重新登记，下个窗口处理
+            pendingVouchers.remove(voucherId);
+            try {
+                if (seckillVoucherService.settleAggregatedStock(voucherId, SETTLE_BATCH) >= SETTLE_BATCH){
+                    pendingVouchers.add(voucherId);
+                }
+            } catch (Exception e) {
+                //数据库异常：订单仍是未扣减状态，下个窗口重试
+                pendingVouchers.add(voucherId);
+                log.error("秒杀券{}合并扣减库存异常", voucherId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.felix.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.felix.model.constants.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ *
+ * 超热点秒杀券的库存拆分到K个子key（seckill:stock:{voucherId:i}），一人一单记录在用户的主分片
+ * （seckill:order:{voucherId:i}，i = userId % K）。花括号为Redis Cluster的hash tag，
+ * 同一分片的库存key和订单key落在同一个slot，不同分片分散到不同slot，单个秒杀券即可突破单个Redis实例的吞吐。
+ * 主分片库存耗尽时依次从兄弟分片窃取库存，所有分片都为空才判定为库存不足
+ */
+@Component
+public class SeckillStockSharding {
+
+    //主分片库存不足，需要窃取兄弟分片
+    private static final long HOME_EMPTY = 5L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry scriptRegistry;
+
+    //新建秒杀券时的默认分片数（1表示不分片）
+    @Value("${lyx.seckill.stock-shards:1}")
+    private int defaultShards;
+
+    //本地缓存分片数的有效期（毫秒）：Redis被清空后重建的分片数在有效期内被各节点重新读取
+    private static final long SHARD_COUNT_TTL = 60000;
+
+    //秒杀券id -> 分片数（本地缓存，只缓存Redis中存在的分片数）
+    private final Map<Long, ShardCount> shardCounts = new ConcurrentHashMap<>();
+
+    private static final class ShardCount {
+        private final int shards;
+        private final long expireAt;
+
+        private ShardCount(int shards, long expireAt) {
+            this.shards = shards;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 确定新建秒杀券的分片数
+     * @param requested 请求中指定的分片数，为空时使用默认配置
+     * @return 分片数（至少为1）
+     */
+    public int resolveShards(Integer requested){
+        int shards = requested != null ? requested : defaultShards;
+        return Math.max(shards, 1);
+    }
+
+    /**
+     * 查询秒杀券的分片数
+     * Redis中没有分片数（秒杀券不存在或Redis数据丢失尚未重建）时按不分片处理，且不缓存，重建后立即生效
+     * @param voucherId 秒杀券id
+     * @return 分片数，未分片的秒杀券返回1
+     */
+    public int shardsOf(Long voucherId){
+        long now = System.currentTimeMillis();
+        ShardCount cached = shardCounts.get(voucherId);
+        if (cached != null && cached.expireAt > now){
+            return cached.shards;
+        }
+        String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (StrUtil.isBlank(shards)){
+            shardCounts.remove(voucherId);
+            return 1;
+        }
+        int count = Integer.parseInt(shards);
+        shardCounts.put(voucherId, new ShardCount(count, now + SHARD_COUNT_TTL));
+        return count;
+    }
+
+    /**
+     * 保存秒杀券的分片数（新建秒杀券和重建时调用，不分片的秒杀券也保存，使各节点可以缓存）
+     * @param voucherId 秒杀券id
+     * @param shards 分片数
+     */
+    public void saveShards(Long voucherId, int shards){
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, new ShardCount(shards, System.currentTimeMillis() + SHARD_COUNT_TTL));
+    }
+
+    /**
+     * 新建秒杀券时将库存平均拆分到各分片
+     * @param voucherId 秒杀券id
+     * @param stock 总库存
+     * @param shards 分片数
+     */
+    public void initShards(Long voucherId, int stock, int shards){
+        int base = stock / shards;
+        int remainder = stock % shards;
+        for (int i = 0; i < shards; i++){
+            int shardStock = base + (i < remainder ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(shardStock));
+        }
+        saveShards(voucherId, shards);
+    }
+
+    /**
+     * 补库存时将新增库存平均分配到各分片
+     * @param voucherId 秒杀券id
+     * @param count 新增库存
+     */
+    public void addStock(Long voucherId, int count){
+        int shards = shardsOf(voucherId);
+        int base = count / shards;
+        int remainder = count % shards;
+        for (int i = 0; i < shards; i++){
+            int shardCount = base + (i < remainder ? 1 : 0);
+            if (shardCount > 0){
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), shardCount);
+            }
+        }
+    }
+
+    /**
+     * 查询所有分片的剩余库存之和
+     * @param voucherId 秒杀券id
+     * @return 剩余库存
+     */
+    public long remainingStock(Long voucherId){
+        int shards = shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++){
+            keys.add(stockKey(voucherId, i));
+        }
+        long total = 0;
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks != null){
+            for (String stock : stocks){
+                total += StrUtil.isBlank(stock) ? 0 : Long.parseLong(stock);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 在分片库存上预扣库存并校验一人一单
+     * @param voucherId 秒杀券id
+     * @param userId 用户id
+     * @return 0：成功；1：库存不足；2：不可重复下单；3：秒杀未开始；4：秒杀已结束（与seckill.lua的返回值一致）
+     */
+    public long reserve(Long voucherId, Long userId){
+        int shards = shardsOf(voucherId);
+        int home = (int) Math.floorMod(userId, (long) shards);
+
+        //1、在主分片上校验一人一单并预扣库存
+        Long result = scriptRegistry.execute(RedisScriptRegistry.SECKILL_SHARD,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), metaKey(voucherId, home)),
+                userId.toString());
+        if (result == null || result != HOME_EMPTY){
+            return result == null ? 1L : result;
+        }
+
+        //2、主分片库存不足：依次从兄弟分片窃取库存
+        for (int i = 1; i < shards; i++){
+            int sibling = (home + i) % shards;
+            Long stolen = scriptRegistry.execute(RedisScriptRegistry.SECKILL_STEAL,
+                    Collections.singletonList(stockKey(voucherId, sibling)));
+            if (stolen != null && stolen == 1L){
+                return 0L;
+            }
+        }
+
+        //3、所有分片都没有库存：释放主分片上占用的下单资格
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        return 1L;
+    }
+
+    /**
+     * 分片库存key
+     */
+    public static String stockKey(Long voucherId, int shard){
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片订单key
+     */
+    public static String orderKey(Long voucherId, int shard){
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片秒杀信息key
+     */
+    public static String metaKey(Long voucherId, int shard){
+        return SECKILL_META_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+}
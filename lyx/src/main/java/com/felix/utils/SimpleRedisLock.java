@@ -1,9 +1,7 @@
 package com.felix.utils;
 
 import cn.hutool.core.collection.ListUtil;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -18,21 +16,13 @@ public class SimpleRedisLock implements ILock {
     //锁的值的前缀（用UUID区分不同的JVM，防止误删操作）
     private static final String ID_PREFIX = UUID.randomUUID().toString() + "-";
 
-    //lua脚本
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    //Lua脚本注册中心（解锁脚本启动时已预加载，只发送EVALSHA）
+    private RedisScriptRegistry scriptRegistry;
 
-    //在类加载时就导入脚本，降低性能损耗
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
-
-
-
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisScriptRegistry scriptRegistry) {
         this.name = name;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.scriptRegistry = scriptRegistry;
     }
 
     /**
@@ -58,7 +48,7 @@ public class SimpleRedisLock implements ILock {
      */
     @Override
     public void unlock() {
-        stringRedisTemplate.execute(UNLOCK_SCRIPT,
+        scriptRegistry.execute(RedisScriptRegistry.UNLOCK,
                 ListUtil.toList(KEY_PREFIX + name),
                 ID_PREFIX + Thread.currentThread().getId());
     }
@@ -0,0 +1,219 @@
+package com.felix.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地生成全局唯一Id（雪花算法，lyx.id.type=snowflake 时替代 RedisIdWorker）
+ *
+ * long类型数据64bit（1bit为符号位，1bit为雪花Id标记（固定为1），40bit为毫秒时间戳（约34年），10bit为工作机器id，12bit为毫秒内序列号）
+ * 与 RedisIdWorker 的Id空间不相交：RedisIdWorker 的Id为 秒级时间戳<<32，在2056年之前都小于 2^62，
+ * 雪花Id的第62位固定为1，始终大于等于 2^62，两种生成器切换或混用时订单id不会重复（切换后的Id也大于切换前的）。
+ * 工作机器id启动时从Redis租用（SET NX PX），后台定时续期；续期失败（Redis短暂不可用）时在租约有效期内继续生成，
+ * 租约已被其他节点获取时立即停止生成，由续期线程重新租用。Id生成本身不访问Redis，吞吐随节点数线性增长。
+ * 时钟回拨：时间戳取 max(当前时间, 上次时间戳)，序列号用完时借用下一毫秒，生成的Id始终递增
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "lyx.id.type", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdGenerator {
+
+    //开始时间戳（毫秒，2022-01-01 00:00:00 UTC，与 RedisIdWorker 一致）
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    //雪花Id标记位：与 RedisIdWorker 的Id空间隔开
+    private static final long SNOWFLAKE_FLAG = 1L << 62;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    //工作机器id租约key前缀
+    private static final String WORKER_LEASE_KEY = "id:worker:";
+    //工作机器id最后使用的时间戳key前缀
+    private static final String WORKER_LAST_KEY = "id:worker:last:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry scriptRegistry;
+
+    //租约有效期（毫秒）
+    @Value("${lyx.id.snowflake.lease-ttl:60000}")
+    private long leaseTtl;
+
+    //续期间隔（毫秒）
+    @Value("${lyx.id.snowflake.heartbeat:10000}")
+    private long heartbeat;
+
+    //本节点的租约标示
+    private final String token = UUID.randomUUID().toString(true);
+
+    private volatile int workerId = -1;
+    //租约到期时间（本地时钟），超过后停止生成，防止与重新租到该id的节点重复
+    private volatile long leaseExpireAt;
+
+    private long lastTimestamp = -1;
+    private long sequence;
+
+    //续期线程
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    public void init(){
+        lease();
+        heartbeatExecutor.scheduleWithFixedDelay(this::renewSafely, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy(){
+        heartbeatExecutor.shutdownNow();
+        if (leaseExpireAt == 0){
+            return;
+        }
+        try {
+            //记录最后使用的时间戳后释放租约（租约已被其他节点获取时不释放，也不重新租用）
+            if (renew()){
+                scriptRegistry.execute(RedisScriptRegistry.UNLOCK,
+                        Arrays.asList(WORKER_LEASE_KEY + workerId), token);
+            }
+        } catch (Exception e) {
+            log.warn("释放工作机器id{}失败：{}", workerId, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取全局唯一Id（业务前缀不参与生成，不同业务的Id也不会重复）
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一Id
+     */
+    @Override
+    public synchronized long nextId(String keyPrefix){
+        long now = currentTimeMillis();
+        if (now >= leaseExpireAt){
+            throw new IllegalStateException("工作机器id租约已过期，暂停生成Id");
+        }
+        //1、生成时间戳（时钟回拨时沿用上次的时间戳）
+        long timestamp = now - BEGIN_MILLIS;
+        if (timestamp < lastTimestamp){
+            if (lastTimestamp - timestamp > 1000){
+                log.warn("检测到时钟回拨{}毫秒", lastTimestamp - timestamp);
+            }
+            timestamp = lastTimestamp;
+        }
+
+        //2、生成序列号：同一毫秒内递增，用完后借用下一毫秒
+        if (timestamp == lastTimestamp){
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0){
+                timestamp = lastTimestamp + 1;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+
+        //3、拼接并返回
+        return SNOWFLAKE_FLAG | timestamp << (WORKER_BITS + SEQUENCE_BITS) | (long) workerId << SEQUENCE_BITS | sequence;
+    }
+
+    @Override
+    public long minIdAt(LocalDateTime time){
+        //Id中的时间戳是Unix时间戳，按系统时区换算
+        long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() - BEGIN_MILLIS;
+        return SNOWFLAKE_FLAG | Math.max(millis, 0) << (WORKER_BITS + SEQUENCE_BITS);
+    }
+
+    public int getWorkerId(){
+        return workerId;
+    }
+
+    /**
+     * 生成Id使用的当前时间（单元测试中覆盖以模拟时钟回拨）
+     */
+    long currentTimeMillis(){
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 租用一个空闲的工作机器id（从随机位置开始依次尝试，减少节点同时启动时的冲突）
+     */
+    private synchronized void lease(){
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++){
+            int candidate = (start + i) & MAX_WORKER_ID;
+            long leasedAt = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_LEASE_KEY + candidate, token, leaseTtl, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)){
+                //上一个使用该id的节点最后的时间戳：本节点从它之后开始生成，防止两台机器时钟不一致导致重复
+                String last = stringRedisTemplate.opsForValue().get(WORKER_LAST_KEY + candidate);
+                lastTimestamp = Math.max(lastTimestamp, StrUtil.isBlank(last) ? -1 : Long.parseLong(last));
+                workerId = candidate;
+                leaseExpireAt = leasedAt + leaseTtl;
+                log.info("已租用工作机器id{}", candidate);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的工作机器id");
+    }
+
+    /**
+     * 续期线程：续期租约，租约已失效时停止生成并重新租用
+     */
+    private void renewSafely(){
+        try {
+            if (leaseExpireAt != 0){
+                if (renew()){
+                    return;
+                }
+                log.warn("工作机器id{}的租约已失效，停止生成Id并重新租用", workerId);
+            }
+            lease();
+        } catch (Exception e) {
+            //Redis短暂不可用：租约有效期内继续生成，下次再续期
+            log.warn("工作机器id{}续期失败：{}", workerId, e.getMessage());
+        }
+    }
+
+    /**
+     * 续期租约并记录最后使用的时间戳；租约已被其他节点获取时立即停止生成
+     * @return false：租约已被其他节点获取
+     */
+    private boolean renew(){
+        long renewedAt = System.currentTimeMillis();
+        long last;
+        synchronized (this){
+            last = lastTimestamp;
+        }
+        Long result = scriptRegistry.execute(RedisScriptRegistry.WORKER_RENEW,
+                Arrays.asList(WORKER_LEASE_KEY + workerId, WORKER_LAST_KEY + workerId),
+                token, String.valueOf(leaseTtl), String.valueOf(last));
+        if (result != null && result == 1){
+            leaseExpireAt = renewedAt + leaseTtl;
+            return true;
+        }
+        leaseExpireAt = 0;
+        return false;
+    }
+}
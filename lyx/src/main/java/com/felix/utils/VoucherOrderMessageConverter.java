@@ -0,0 +1,104 @@
+package com.felix.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.felix.model.entity.VoucherOrder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 订单消息编解码（RabbitTemplate和监听容器共用，由Spring Boot自动装配）
+ *
+ * 发送：lyx.order.codec 为 binary 时，VoucherOrder 编码为固定长度的二进制：版本号(1字节) + 订单id + 用户id + 秒杀券id（各8字节），
+ * content-type 为 application/x-voucher-order；为 json 时仍编码为JSON
+ * 接收：按 content-type 解码，两种格式都能读取，灰度切换期间新旧消息可以同时存在
+ */
+@Component
+public class VoucherOrderMessageConverter implements MessageConverter {
+
+    public static final String CONTENT_TYPE_BINARY = "application/x-voucher-order";
+    public static final byte VERSION = 1;
+    private static final int BINARY_SIZE = 1 + 8 * 3;
+
+    //其他类型的消息
+    private final SimpleMessageConverter fallback = new SimpleMessageConverter();
+
+    //发送订单消息的编码方式：json / binary
+    @Value("${lyx.order.codec:json}")
+    private String codec;
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (!(object instanceof VoucherOrder)){
+            return fallback.toMessage(object, messageProperties);
+        }
+        VoucherOrder voucherOrder = (VoucherOrder) object;
+        if ("binary".equals(codec)){
+            messageProperties.setContentType(CONTENT_TYPE_BINARY);
+            return new Message(encode(voucherOrder), messageProperties);
+        }
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        return new Message(JSONUtil.toJsonStr(voucherOrder).getBytes(StandardCharsets.UTF_8), messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        String contentType = message.getMessageProperties().getContentType();
+        if (CONTENT_TYPE_BINARY.equals(contentType)
+                || MessageProperties.CONTENT_TYPE_JSON.equals(contentType)
+                || isJsonText(message)){
+            return decode(message);
+        }
+        return fallback.fromMessage(message);
+    }
+
+    /**
+     * 解析订单消息
+     * @param message 二进制或JSON格式的订单消息（升级前发送的JSON字符串消息 content-type 为 text/plain）
+     * @return 订单
+     */
+    public static VoucherOrder decode(Message message){
+        byte[] body = message.getBody();
+        if (CONTENT_TYPE_BINARY.equals(message.getMessageProperties().getContentType())){
+            if (body.length < BINARY_SIZE || body[0] != VERSION){
+                throw new MessageConversionException("不支持的订单消息版本：" + (body.length > 0 ? body[0] : -1));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(body, 1, BINARY_SIZE - 1);
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(buffer.getLong());
+            voucherOrder.setUserId(buffer.getLong());
+            voucherOrder.setVoucherId(buffer.getLong());
+            return voucherOrder;
+        }
+        return JSONUtil.toBean(new String(body, StandardCharsets.UTF_8), VoucherOrder.class);
+    }
+
+    /**
+     * 编码为二进制
+     */
+    public static byte[] encode(VoucherOrder voucherOrder){
+        return ByteBuffer.allocate(BINARY_SIZE)
+                .put(VERSION)
+                .putLong(voucherOrder.getId())
+                .putLong(voucherOrder.getUserId())
+                .putLong(voucherOrder.getVoucherId())
+                .array();
+    }
+
+    /**
+     * 升级前以字符串发送的JSON订单消息
+     */
+    private static boolean isJsonText(Message message){
+        byte[] body = message.getBody();
+        return MessageProperties.CONTENT_TYPE_TEXT_PLAIN.equals(message.getMessageProperties().getContentType())
+                && body.length > 0 && body[0] == '{';
+    }
+}
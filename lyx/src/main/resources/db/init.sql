@@ -91,6 +91,8 @@ CREATE TABLE `tb_seckill_voucher`  (
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `begin_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '生效时间',
   `end_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '失效时间',
+  `stock_shards` int(4) UNSIGNED NOT NULL DEFAULT 1 COMMENT 'Redis库存分片数，1表示不分片',
+  `dedup` varchar(16) NOT NULL DEFAULT 'set' COMMENT '一人一单去重方式：set/bitmap',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '秒杀优惠券表，与优惠券是一对一关系' ROW_FORMAT = Compact;
@@ -99,6 +101,21 @@ CREATE TABLE `tb_seckill_voucher`  (
 -- Records of tb_seckill_voucher
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_seckill_voucher_bucket
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_seckill_voucher_bucket`;
+CREATE TABLE `tb_seckill_voucher_bucket`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的秒杀券的id',
+  `bucket_no` int(4) UNSIGNED NOT NULL COMMENT '分桶编号',
+  `stock` int(8) NOT NULL COMMENT '分桶库存',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_voucher_bucket`(`voucher_id`, `bucket_no`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '秒杀券分桶库存表，热点秒杀券的库存拆分到多行以提高并发扣减能力' ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_shop
 -- ----------------------------
@@ -1274,7 +1291,10 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  `stock_settled` tinyint(1) UNSIGNED NOT NULL DEFAULT 1 COMMENT '数据库库存是否已扣减，开启库存扣减合并时以0入库，合并扣减后置为1',
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_voucher_user`(`voucher_id`, `user_id`) USING BTREE,
+  INDEX `idx_voucher_settled`(`voucher_id`, `stock_settled`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
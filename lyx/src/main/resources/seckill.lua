@@ -5,28 +5,68 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.是否将订单写入Stream消息队列（'1'：写入）
+local toStream = ARGV[4]
+-- 1.5.是否登记订单发布台账（'1'：登记，通过RabbitMQ下单时使用）
+local ledger = ARGV[5]
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2.订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3.秒杀信息key（秒杀开始/结束时间、一人一单去重方式）
+local metaKey = 'seckill:meta:' .. voucherId
 
 -- 3.脚本业务
+-- 3.0.判断是否在秒杀时间内（未保存秒杀信息时不校验）
+local window = redis.call('hmget', metaKey, 'begin', 'end', 'dedup')
+if(window[1]) then
+    local now = tonumber(redis.call('time')[1])
+    if(now < tonumber(window[1])) then
+        -- 秒杀未开始，返回3
+        return 3
+    end
+    if(now > tonumber(window[2])) then
+        -- 秒杀已结束，返回4
+        return 4
+    end
+end
 -- 3.1.判断库存是否充足 get stockKey
 if(tonumber(redis.call('get', stockKey)) <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
+-- 3.2.判断用户是否下单：位图去重 GETBIT bitmapKey offset，集合去重 SISMEMBER orderKey userId
+local useBitmap = (window[3] == 'bitmap')
+local bitmapKey, offset
+if(useBitmap) then
+    -- 按用户id分块（每块2^20位），稀疏的大id只分配自己所在的块
+    local uid = tonumber(userId)
+    bitmapKey = 'seckill:order:bitmap:' .. voucherId .. ':' .. math.floor(uid / 1048576)
+    offset = uid % 1048576
+    if(redis.call('getbit', bitmapKey, offset) == 1) then
+        -- 存在，说明是重复下单，返回2
+        return 2
+    end
+elseif(redis.call('sismember', orderKey, userId) == 1) then
+    -- 存在，说明是重复下单，返回2
     return 2
 end
 -- 3.4.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ... （使用Redis的Stream消息队列）
--- redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.5.下单（保存用户）setbit bitmapKey offset 1 / sadd orderKey userId
+if(useBitmap) then
+    redis.call('setbit', bitmapKey, offset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+-- 3.6.登记订单发布台账 HSET seckill:ledger:voucherId orderId userId:time（订单入库后删除）
+if(ledger == '1') then
+    redis.call('hset', 'seckill:ledger:' .. voucherId, orderId, userId .. ':' .. redis.call('time')[1])
+end
+-- 3.7.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ... （使用Redis的Stream消息队列）
+if(toStream == '1') then
+    redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
 return 0
\ No newline at end of file
@@ -0,0 +1,62 @@
+-- 秒杀资格校验、预扣库存并生成订单序列号（与seckill.lua逻辑一致，省去单独INCR生成订单id的一次往返）
+-- 1.参数列表
+-- 1.1.订单序列号key（inc:order:yyyy:MM:dd）
+local idKey = KEYS[1]
+-- 1.2.优惠券id
+local voucherId = ARGV[1]
+-- 1.3.用户id
+local userId = ARGV[2]
+
+-- 2.数据key
+-- 2.1.库存key
+local stockKey = 'seckill:stock:' .. voucherId
+-- 2.2.订单key
+local orderKey = 'seckill:order:' .. voucherId
+-- 2.3.秒杀信息key（秒杀开始/结束时间、一人一单去重方式）
+local metaKey = 'seckill:meta:' .. voucherId
+
+-- 3.脚本业务
+-- 3.0.判断是否在秒杀时间内（未保存秒杀信息时不校验）
+local window = redis.call('hmget', metaKey, 'begin', 'end', 'dedup')
+if(window[1]) then
+    local now = tonumber(redis.call('time')[1])
+    if(now < tonumber(window[1])) then
+        -- 秒杀未开始，返回-3
+        return -3
+    end
+    if(now > tonumber(window[2])) then
+        -- 秒杀已结束，返回-4
+        return -4
+    end
+end
+-- 3.1.判断库存是否充足 get stockKey
+if(tonumber(redis.call('get', stockKey)) <= 0) then
+    -- 库存不足，返回-1
+    return -1
+end
+-- 3.2.判断用户是否下单：位图去重 GETBIT bitmapKey offset，集合去重 SISMEMBER orderKey userId
+local useBitmap = (window[3] == 'bitmap')
+local bitmapKey, offset
+if(useBitmap) then
+    -- 按用户id分块（每块2^20位），稀疏的大id只分配自己所在的块
+    local uid = tonumber(userId)
+    bitmapKey = 'seckill:order:bitmap:' .. voucherId .. ':' .. math.floor(uid / 1048576)
+    offset = uid % 1048576
+    if(redis.call('getbit', bitmapKey, offset) == 1) then
+        -- 存在，说明是重复下单，返回-2
+        return -2
+    end
+elseif(redis.call('sismember', orderKey, userId) == 1) then
+    -- 存在，说明是重复下单，返回-2
+    return -2
+end
+-- 3.3.扣库存 incrby stockKey -1
+redis.call('incrby', stockKey, -1)
+-- 3.4.下单（保存用户）setbit bitmapKey offset 1 / sadd orderKey userId
+if(useBitmap) then
+    redis.call('setbit', bitmapKey, offset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+-- 3.5.生成并返回订单序列号（订单id由调用方拼接时间戳，Lua的数字精度不足以直接拼出64位id）
+return redis.call('incr', idKey)
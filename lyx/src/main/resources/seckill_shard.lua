@@ -0,0 +1,39 @@
+-- 分片库存模式：在用户所属的主分片上预扣库存
+-- 1.参数列表
+-- 1.1.主分片库存key
+local stockKey = KEYS[1]
+-- 1.2.主分片订单key（一人一单只记录在用户的主分片上）
+local orderKey = KEYS[2]
+-- 1.3.主分片的秒杀信息key（每个分片保存一份秒杀开始/结束时间，与库存key在同一个slot）
+local metaKey = KEYS[3]
+-- 1.4.用户id
+local userId = ARGV[1]
+
+-- 2.脚本业务
+-- 2.0.判断是否在秒杀时间内（未保存秒杀信息时不校验）
+local window = redis.call('hmget', metaKey, 'begin', 'end')
+if(window[1]) then
+    local now = tonumber(redis.call('time')[1])
+    if(now < tonumber(window[1])) then
+        -- 秒杀未开始，返回3
+        return 3
+    end
+    if(now > tonumber(window[2])) then
+        -- 秒杀已结束，返回4
+        return 4
+    end
+end
+-- 2.1.判断用户是否下单 SISMEMBER orderKey userId
+if(redis.call('sismember', orderKey, userId) == 1) then
+    -- 存在，说明是重复下单，返回2
+    return 2
+end
+-- 2.2.先占用下单资格，防止同一用户在窃取其他分片库存期间重复下单
+redis.call('sadd', orderKey, userId)
+-- 2.3.主分片库存充足：扣库存，返回0
+if(tonumber(redis.call('get', stockKey) or '0') > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+-- 2.4.主分片库存不足，返回5，由调用方尝试从其他分片窃取库存
+return 5
@@ -0,0 +1,9 @@
+-- 分片库存模式：从兄弟分片窃取一个库存
+-- KEYS[1] 就是兄弟分片的库存key
+if(tonumber(redis.call('get', KEYS[1]) or '0') > 0) then
+    -- 库存充足，扣库存并返回1
+    redis.call('incrby', KEYS[1], -1)
+    return 1
+end
+-- 库存不足，返回0
+return 0
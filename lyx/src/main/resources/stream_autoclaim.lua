@@ -0,0 +1,5 @@
+-- 将消费者组中空闲超时的pending消息转移给当前消费者
+-- KEYS[1] 就是Stream的key
+-- ARGV[1] 消费者组，ARGV[2] 接收消息的消费者，ARGV[3] 最小空闲时间（毫秒），ARGV[4] 起始id，ARGV[5] 最多转移的数量
+-- 返回值：{下一次扫描的起始id, {转移的消息id...}, ...}
+return redis.call('xautoclaim', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4], 'COUNT', ARGV[5], 'JUSTID')
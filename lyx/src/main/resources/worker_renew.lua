@@ -0,0 +1,11 @@
+-- 这里的 KEYS[1] 是工作机器id的租约key，KEYS[2] 是该工作机器id最后使用的时间戳key
+-- ARGV[1] 是本节点的租约标示，ARGV[2] 是租约有效期（毫秒），ARGV[3] 是本节点最后使用的时间戳
+-- 判断租约是否仍属于本节点
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+    -- 是，则续期并记录最后使用的时间戳（下一个租到该id的节点从这个时间戳之后开始生成，防止时钟回拨导致重复）
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    redis.call('SET', KEYS[2], ARGV[3])
+    return 1
+end
+-- 租约已过期并被其他节点获取
+return 0
@@ -0,0 +1,129 @@
+package com.felix.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * LocalCache 的容量、准入和删除测试（不依赖Redis）
+ */
+class LocalCacheTest {
+
+    private static final String PREFIX = "cache:shop:";
+
+    private static LocalCache newCache(int maximumSize, Map<String, Long> prefixTtls){
+        LocalCache cache = new LocalCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maximumSize", maximumSize);
+        ReflectionTestUtils.setField(cache, "defaultTtl", 60000L);
+        ReflectionTestUtils.setField(cache, "prefixTtls", prefixTtls);
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(cache, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        cache.init();
+        return cache;
+    }
+
+    @Test
+    void testPutAndGet() {
+        LocalCache cache = newCache(100, new HashMap<>());
+        cache.put(PREFIX, PREFIX + 1, "shop1");
+        cache.put(PREFIX, PREFIX + 2, null);
+
+        assertEquals("shop1", cache.get(PREFIX + 1));
+        //缓存的空值返回 NULL_VALUE，未命中返回null
+        assertSame(LocalCache.NULL_VALUE, cache.get(PREFIX + 2));
+        assertNull(cache.get(PREFIX + 3));
+    }
+
+    @Test
+    void testSizeBounded() {
+        LocalCache cache = newCache(100, new HashMap<>());
+        for (int i = 0; i < 1000; i++){
+            cache.put(PREFIX, PREFIX + i, i);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void testAdmissionKeepsHotKeys() {
+        LocalCache cache = newCache(100, new HashMap<>());
+        //1、写满缓存并反复读取，使其成为热点key
+        for (int i = 0; i < 100; i++){
+            cache.put(PREFIX, "hot" + i, i);
+        }
+        for (int round = 0; round < 10; round++){
+            for (int i = 0; i < 100; i++){
+                cache.get("hot" + i);
+            }
+        }
+        //2、大量只写入一次的key
+        for (int i = 0; i < 1000; i++){
+            cache.put(PREFIX, "cold" + i, i);
+        }
+
+        //3、偶发访问的key无法挤掉热点key
+        int hot = 0;
+        for (int i = 0; i < 100; i++){
+            if (cache.get("hot" + i) != null){
+                hot++;
+            }
+        }
+        assertTrue(hot >= 95, "热点key被挤出：剩余" + hot);
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void testInvalidateReleasesCapacity() {
+        LocalCache cache = newCache(100, new HashMap<>());
+        for (int i = 0; i < 100; i++){
+            cache.put(PREFIX, "old" + i, i);
+        }
+        for (int i = 0; i < 100; i++){
+            cache.invalidate("old" + i);
+        }
+        assertEquals(0, cache.size());
+
+        //删除的key不再占用窗口区和主区，新写入的key无需淘汰
+        for (int i = 0; i < 100; i++){
+            cache.put(PREFIX, "new" + i, i);
+        }
+        for (int i = 0; i < 100; i++){
+            assertEquals(i, cache.get("new" + i));
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void testExpiredEntryRemoved() throws InterruptedException {
+        LocalCache cache = newCache(100, Collections.singletonMap(PREFIX, 1L));
+        cache.put(PREFIX, PREFIX + 1, "shop1");
+        Thread.sleep(10);
+
+        assertNull(cache.get(PREFIX + 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testRemoteInvalidate() {
+        LocalCache cache = newCache(100, new HashMap<>());
+        cache.put(PREFIX, PREFIX + 1, "shop1");
+
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn((PREFIX + 1).getBytes(StandardCharsets.UTF_8));
+        cache.onMessage(message, null);
+
+        assertNull(cache.get(PREFIX + 1));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,98 @@
+package com.felix.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OrderConfirmLedger 的容量和重试测试
+ */
+class OrderConfirmLedgerTest {
+
+    @Test
+    void testCapacity() {
+        OrderConfirmLedger ledger = new OrderConfirmLedger(2);
+        assertTrue(ledger.track(1L, 10L, 100L, 1000L));
+        //同一订单重复登记只占用一个名额
+        assertTrue(ledger.track(1L, 10L, 100L, 1000L));
+        assertEquals(1, ledger.size());
+
+        assertTrue(ledger.track(2L, 20L, 100L, 1000L));
+        //台账已满
+        assertFalse(ledger.track(3L, 30L, 100L, 1000L));
+        assertEquals(2, ledger.size());
+
+        //确认后释放名额
+        ledger.confirm(1L);
+        assertEquals(1, ledger.size());
+        assertTrue(ledger.track(3L, 30L, 100L, 1000L));
+        assertEquals(2, ledger.size());
+
+        //重复确认、确认未登记的订单不影响计数
+        ledger.confirm(1L);
+        ledger.remove(99L);
+        assertEquals(2, ledger.size());
+    }
+
+    @Test
+    void testCollectDueAndBackoff() {
+        OrderConfirmLedger ledger = new OrderConfirmLedger(10);
+        ledger.track(1L, 10L, 100L, 1000L);
+        ledger.track(2L, 20L, 100L, 5000L);
+
+        //1、未到期的订单不重新发送
+        List<OrderConfirmLedger.PendingPublish> due = new ArrayList<>();
+        ledger.collectDue(999L, attempts -> 100L * attempts, 10, due);
+        assertTrue(due.isEmpty());
+
+        //2、到期的订单取出，记录发送次数，下次重试时间按次数退避
+        ledger.collectDue(1000L, attempts -> 100L * attempts, 10, due);
+        assertEquals(1, due.size());
+        assertEquals(1L, due.get(0).getOrderId());
+        assertEquals(10L, due.get(0).getUserId());
+        assertEquals(100L, due.get(0).getVoucherId());
+        assertEquals(1, due.get(0).getAttempts());
+
+        due.clear();
+        ledger.collectDue(1099L, attempts -> 100L * attempts, 10, due);
+        assertTrue(due.isEmpty());
+        ledger.collectDue(1100L, attempts -> 100L * attempts, 10, due);
+        assertEquals(1, due.size());
+        assertEquals(2, due.get(0).getAttempts());
+
+        //3、收到ack后不再重新发送
+        ledger.confirm(1L);
+        due.clear();
+        ledger.collectDue(Long.MAX_VALUE - 1000, attempts -> 0L, 10, due);
+        assertEquals(1, due.size());
+        assertEquals(2L, due.get(0).getOrderId());
+    }
+
+    @Test
+    void testNackRetriesEarlier() {
+        OrderConfirmLedger ledger = new OrderConfirmLedger(10);
+        ledger.track(1L, 10L, 100L, 10000L);
+        ledger.nack(1L, 500L);
+
+        List<OrderConfirmLedger.PendingPublish> due = new ArrayList<>();
+        ledger.collectDue(500L, attempts -> 1000L, 10, due);
+        assertEquals(1, due.size());
+        //nack未登记的订单不会新增
+        ledger.nack(2L, 0L);
+        assertEquals(1, ledger.size());
+    }
+
+    @Test
+    void testCollectDueLimit() {
+        OrderConfirmLedger ledger = new OrderConfirmLedger(10);
+        for (long id = 1; id <= 5; id++){
+            ledger.track(id, id, 100L, 0L);
+        }
+        List<OrderConfirmLedger.PendingPublish> due = new ArrayList<>();
+        ledger.collectDue(1L, attempts -> 1000L, 3, due);
+        assertEquals(3, due.size());
+    }
+}
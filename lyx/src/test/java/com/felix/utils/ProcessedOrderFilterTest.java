@@ -0,0 +1,71 @@
+package com.felix.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ProcessedOrderFilter 的命中测试
+ */
+class ProcessedOrderFilterTest {
+
+    private static ProcessedOrderFilter newFilter(int filterSize){
+        ProcessedOrderFilter filter = new ProcessedOrderFilter();
+        ReflectionTestUtils.setField(filter, "filterSize", filterSize);
+        filter.init();
+        return filter;
+    }
+
+    @Test
+    void testMarkedOrdersHit() {
+        ProcessedOrderFilter filter = newFilter(1024);
+        filter.markAfterCommit(Arrays.asList(101L, 102L, 103L));
+
+        assertTrue(filter.contains(101L));
+        assertTrue(filter.contains(102L));
+        assertTrue(filter.contains(103L));
+        assertFalse(filter.contains(104L));
+        //空槽位的值为0，订单id 0 不能命中
+        assertFalse(filter.contains(0L));
+    }
+
+    @Test
+    void testNoFalsePositiveWhenSlotsOverwritten() {
+        ProcessedOrderFilter filter = newFilter(16);
+        List<Long> marked = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++){
+            marked.add(id);
+        }
+        filter.markAfterCommit(marked);
+
+        //槽位被覆盖后只会漏判，未标记的订单永远不会命中
+        for (long id = 1001; id <= 2000; id++){
+            assertFalse(filter.contains(id));
+        }
+        assertTrue(filter.contains(1000L));
+    }
+
+    @Test
+    void testMarkOnlyAfterCommit() {
+        ProcessedOrderFilter filter = newFilter(1024);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            filter.markAfterCommit(Arrays.asList(201L, 202L));
+            //事务提交前不命中
+            assertFalse(filter.contains(201L));
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            assertTrue(filter.contains(201L));
+            assertTrue(filter.contains(202L));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
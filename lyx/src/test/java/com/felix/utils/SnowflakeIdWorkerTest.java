@@ -0,0 +1,110 @@
+package com.felix.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SnowflakeIdWorker 的Id生成测试（不租用工作机器id，直接设置租约）
+ */
+class SnowflakeIdWorkerTest {
+
+    //2023-01-01 00:00:00 UTC
+    private static final long NOW = 1672531200000L;
+
+    private static final int MAX_WORKER_ID = 1023;
+
+    /**
+     * 可以手动调整时钟的生成器
+     */
+    private static final class ManualClockIdWorker extends SnowflakeIdWorker {
+        private long now = NOW;
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static ManualClockIdWorker newWorker(int workerId){
+        ManualClockIdWorker worker = new ManualClockIdWorker();
+        ReflectionTestUtils.setField(worker, "workerId", workerId);
+        ReflectionTestUtils.setField(worker, "leaseExpireAt", Long.MAX_VALUE);
+        return worker;
+    }
+
+    @Test
+    void testMonotonicUnderClockRollback() {
+        ManualClockIdWorker worker = newWorker(3);
+        long last = worker.nextId("order");
+        for (int i = 0; i < 100; i++){
+            long id = worker.nextId("order");
+            assertTrue(id > last);
+            last = id;
+        }
+
+        //时钟回拨5秒：沿用上次的时间戳继续递增，序列号用完后借用下一毫秒
+        worker.now = NOW - 5000;
+        for (int i = 0; i < 10000; i++){
+            long id = worker.nextId("order");
+            assertTrue(id > last, "时钟回拨后Id不递增");
+            last = id;
+        }
+
+        //时钟恢复后仍然递增
+        worker.now = NOW + 10;
+        assertTrue(worker.nextId("order") > last);
+    }
+
+    @Test
+    void testSequenceOverflowBorrowsNextMillisecond() {
+        ManualClockIdWorker worker = newWorker(0);
+        long last = -1;
+        //同一毫秒内生成超过4096个Id
+        for (int i = 0; i < 5000; i++){
+            long id = worker.nextId("order");
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    void testIdSpaceDisjointFromRedisIdWorker() {
+        ManualClockIdWorker worker = newWorker(MAX_WORKER_ID);
+        long id = worker.nextId("order");
+        //雪花Id的第62位固定为1，RedisIdWorker的Id小于2^62
+        assertTrue(id >= 1L << 62);
+        assertTrue(RedisIdWorker.compose(RedisIdWorker.timestampOf(LocalDateTime.of(2050, 1, 1, 0, 0)), 0xFFFFFFFFL) < 1L << 62);
+        LocalDateTime now = LocalDateTime.ofInstant(Instant.ofEpochMilli(NOW), ZoneId.systemDefault());
+        assertTrue(id >= worker.minIdAt(now));
+        assertTrue(id < worker.minIdAt(now.plusSeconds(1)));
+    }
+
+    @Test
+    void testMinIdAtUsesSystemZone() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        try {
+            ManualClockIdWorker worker = newWorker(1);
+            long id = worker.nextId("order");
+            //NOW 是UTC的 2023-01-01 00:00:00，即东八区的 2023-01-01 08:00:00
+            assertTrue(id >= worker.minIdAt(LocalDateTime.of(2023, 1, 1, 8, 0)));
+            assertTrue(id < worker.minIdAt(LocalDateTime.of(2023, 1, 1, 8, 0, 1)));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    void testStopWhenLeaseExpired() {
+        ManualClockIdWorker worker = newWorker(1);
+        ReflectionTestUtils.setField(worker, "leaseExpireAt", NOW);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.felix.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.felix.model.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * VoucherOrderMessageConverter 的编解码测试
+ */
+class VoucherOrderMessageConverterTest {
+
+    private static VoucherOrderMessageConverter newConverter(String codec){
+        VoucherOrderMessageConverter converter = new VoucherOrderMessageConverter();
+        ReflectionTestUtils.setField(converter, "codec", codec);
+        return converter;
+    }
+
+    private static VoucherOrder newOrder(){
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(Long.MAX_VALUE - 1);
+        voucherOrder.setUserId(1010L);
+        voucherOrder.setVoucherId(12L);
+        return voucherOrder;
+    }
+
+    @Test
+    void testBinaryRoundTrip() {
+        VoucherOrderMessageConverter converter = newConverter("binary");
+        Message message = converter.toMessage(newOrder(), new MessageProperties());
+
+        assertEquals(VoucherOrderMessageConverter.CONTENT_TYPE_BINARY, message.getMessageProperties().getContentType());
+        assertEquals(25, message.getBody().length);
+        assertEquals(VoucherOrderMessageConverter.VERSION, message.getBody()[0]);
+        assertEquals(newOrder(), converter.fromMessage(message));
+    }
+
+    @Test
+    void testJsonRoundTrip() {
+        VoucherOrderMessageConverter converter = newConverter("json");
+        Message message = converter.toMessage(newOrder(), new MessageProperties());
+
+        assertEquals(MessageProperties.CONTENT_TYPE_JSON, message.getMessageProperties().getContentType());
+        assertEquals(newOrder(), converter.fromMessage(message));
+        //json编码的消息也能被二进制模式的节点读取（灰度切换）
+        assertEquals(newOrder(), newConverter("binary").fromMessage(message));
+    }
+
+    @Test
+    void testTextPlainJsonFallback() {
+        //升级前以字符串发送的JSON订单消息
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        Message message = new Message(JSONUtil.toJsonStr(newOrder()).getBytes(StandardCharsets.UTF_8), properties);
+
+        assertEquals(newOrder(), newConverter("binary").fromMessage(message));
+        assertEquals(newOrder(), VoucherOrderMessageConverter.decode(message));
+    }
+
+    @Test
+    void testOtherPayloadFallback() {
+        VoucherOrderMessageConverter converter = newConverter("binary");
+        //非订单对象和普通字符串消息交给 SimpleMessageConverter
+        Message message = converter.toMessage("hello", new MessageProperties());
+        assertEquals(MessageProperties.CONTENT_TYPE_TEXT_PLAIN, message.getMessageProperties().getContentType());
+        assertEquals("hello", converter.fromMessage(message));
+    }
+
+    @Test
+    void testUnsupportedVersion() {
+        byte[] body = VoucherOrderMessageConverter.encode(newOrder());
+        body[0] = 2;
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(VoucherOrderMessageConverter.CONTENT_TYPE_BINARY);
+
+        assertThrows(MessageConversionException.class,
+                () -> VoucherOrderMessageConverter.decode(new Message(body, properties)));
+    }
+}